@@ -0,0 +1,98 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+/* Time scoring circles in a normal plane with the running row sums that
+   Path.CircleAttempt uses, against going through every point of the plane
+   (see CircleAttemptTest) */
+
+package tracing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CircleAttemptBenchmark {
+
+	static final int SIDE = 40;
+
+	Path.CircleAttempt attempt;
+	double[][] circles;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(23);
+		final float[] plane = new float[SIDE * SIDE];
+		float minValue = Float.MAX_VALUE, maxValue = -Float.MAX_VALUE;
+		for (int j = 0; j < SIDE; ++j)
+			for (int i = 0; i < SIDE; ++i) {
+				final double d2 = (i - SIDE / 2.0) * (i - SIDE / 2.0) + (j - SIDE / 2.0) * (j - SIDE / 2.0);
+				final float value = (float) (200 * Math.exp(-d2 / 30) + random.nextInt(20));
+				plane[j * SIDE + i] = value;
+				minValue = Math.min(minValue, value);
+				maxValue = Math.max(maxValue, value);
+			}
+		final Path path = new Path(1, 1, 1, "pixels");
+		attempt = path.new CircleAttempt(new double[] { SIDE / 2.0, SIDE / 2.0, 3 }, plane, minValue, maxValue,
+				SIDE);
+
+		circles = new double[100][];
+		for (int i = 0; i < circles.length; ++i)
+			circles[i] = new double[] { random.nextDouble() * SIDE, random.nextDouble() * SIDE,
+					random.nextDouble() * SIDE / 2 };
+	}
+
+	@Benchmark
+	public double evaluateCircle() {
+		double total = 0;
+		for (final double[] c : circles)
+			total += attempt.evaluateCircle(c[0], c[1], c[2]);
+		return total;
+	}
+
+	@Benchmark
+	public double evaluateCircleByScanning() {
+		double total = 0;
+		for (final double[] c : circles)
+			total += CircleAttemptTest.evaluateCircleByScanning(attempt, c[0], c[1], c[2]);
+		return total;
+	}
+}
@@ -0,0 +1,139 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+/* Time decrease-key on the open list of a search using SearchNodeHeap,
+   against the PriorityQueue remove() and add() that SearchThread used
+   before, with nodes taken from a synthetic neurite image */
+
+package tracing;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OpenListBenchmark {
+
+	@Param({ "50000" })
+	int openSize;
+
+	@Param({ "2000" })
+	int decreases;
+
+	ImagePlus image;
+	int[] which;
+	float[] by;
+
+	SearchNode[] nodes;
+	PriorityQueue<SearchNode> queue;
+	SearchNodeHeap heap;
+
+	@Setup
+	public void setUp() {
+		image = new SyntheticNeurites(200, 100, 40, 4).image(2);
+		final Random random = new Random(1);
+		which = new int[decreases];
+		by = new float[decreases];
+		for (int i = 0; i < decreases; ++i) {
+			which[i] = random.nextInt(openSize);
+			by[i] = random.nextFloat();
+		}
+	}
+
+	/*
+	 * Make one SearchNode for each of the first openSize voxels, with g
+	 * taken from the reciprocal of the image value, as TracerThread would;
+	 * each benchmark adds them to its open list and then applies the same
+	 * decreases. The decrease-keys change the nodes, so this is done again
+	 * before every call.
+	 */
+
+	@Setup(Level.Invocation)
+	public void fillOpenLists() {
+		final ImageStack stack = image.getStack();
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		nodes = new SearchNode[openSize];
+		queue = new PriorityQueue<>();
+		heap = new SearchNodeHeap();
+		for (int i = 0; i < openSize; ++i) {
+			final int x = i % width;
+			final int y = (i / width) % height;
+			final int z = i / (width * height);
+			final double value = stack.getVoxel(x, y, z);
+			final float g = (float) (100 + 1 / Math.max(value, 0.5));
+			nodes[i] = new SearchNode(x, y, z, g, 0, null, SearchThread.OPEN_FROM_START);
+		}
+	}
+
+	@Benchmark
+	public SearchNode priorityQueueRemoveAndAdd() {
+		for (final SearchNode n : nodes)
+			queue.add(n);
+		for (int i = 0; i < decreases; ++i) {
+			final SearchNode n = nodes[which[i]];
+			queue.remove(n);
+			n.g -= by[i];
+			n.f = n.g + n.h;
+			queue.add(n);
+		}
+		return queue.peek();
+	}
+
+	@Benchmark
+	public SearchNode searchNodeHeapDecreaseKey() {
+		for (final SearchNode n : nodes)
+			heap.add(n);
+		for (int i = 0; i < decreases; ++i) {
+			final SearchNode n = nodes[which[i]];
+			n.g -= by[i];
+			n.f = n.g + n.h;
+			heap.decreaseKey(n);
+		}
+		return heap.peek();
+	}
+}
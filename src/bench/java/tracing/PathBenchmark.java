@@ -0,0 +1,108 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+/* Time fitting circles to a path, finding the nearest point on any path and
+   making Sholl profiles, for the tracings of a synthetic neurite */
+
+package tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathBenchmark {
+
+	SyntheticNeurites neurites;
+	ImagePlus image;
+	Path trunk;
+	PathAndFillManager pathAndFillManager;
+	double[][] queryPoints;
+	List<ShollAnalysisDialog.ShollPoint> shollPoints;
+	double shollX, shollY, shollZ;
+
+	@Setup
+	public void setUp() {
+		neurites = new SyntheticNeurites(200, 100, 40, 8);
+		image = neurites.image(3);
+		pathAndFillManager = neurites.pathAndFillManager();
+		trunk = pathAndFillManager.getPath(0);
+
+		final Random random = new Random(4);
+		queryPoints = new double[100][];
+		for (int i = 0; i < queryPoints.length; ++i)
+			queryPoints[i] = new double[] { random.nextDouble() * neurites.width,
+					random.nextDouble() * neurites.height, random.nextDouble() * neurites.depth };
+
+		shollX = trunk.precise_x_positions[0];
+		shollY = trunk.precise_y_positions[0];
+		shollZ = trunk.precise_z_positions[0];
+		shollPoints = new ArrayList<>();
+		for (int i = 0; i < pathAndFillManager.size(); ++i)
+			ShollAnalysisDialog.addPathPointsToShollList(pathAndFillManager.getPath(i), shollX, shollY, shollZ,
+					shollPoints);
+	}
+
+	@Benchmark
+	public Path fitCircles() {
+		return trunk.fitCircles(40, image, false);
+	}
+
+	@Benchmark
+	public int nearestPointOnAnyPath() {
+		int found = 0;
+		for (final double[] p : queryPoints)
+			if (pathAndFillManager.nearestPointOnAnyPath(p[0], p[1], p[2], 10) != null)
+				++found;
+		return found;
+	}
+
+	@Benchmark
+	public ShollAnalysisDialog.ShollResults shollResults() {
+		// The constructor sorts the list it's given, so pass a copy:
+		return new ShollAnalysisDialog.ShollResults(new ArrayList<>(shollPoints), image, true,
+				pathAndFillManager.size(), shollX, shollY, shollZ, "benchmark", ShollAnalysisDialog.AXES_NORMAL,
+				ShollAnalysisDialog.NOT_NORMALIZED, 0, false);
+	}
+}
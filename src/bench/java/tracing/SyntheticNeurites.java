@@ -0,0 +1,145 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+/* Synthetic images and tracings of neurites for the benchmarks, generated
+   in-process so that they don't need any sample data to be downloaded */
+
+package tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/*
+ * The image has a bright trunk that winds along the x axis and a number of
+ * straight branches that leave it in the y direction, alternately up and
+ * down, on a noisy background. tracings() gives the centre lines of the same
+ * neurites as joined paths.
+ */
+
+class SyntheticNeurites {
+
+	final int width;
+	final int height;
+	final int depth;
+	final int branches;
+
+	SyntheticNeurites(final int width, final int height, final int depth, final int branches) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.branches = branches;
+	}
+
+	double trunkY(final double x) {
+		return height / 2.0 + (height / 8.0) * Math.sin(x * 2 * Math.PI / width);
+	}
+
+	double trunkZ(final double x) {
+		return depth / 2.0 + (depth / 4.0) * Math.cos(x * 2 * Math.PI / width);
+	}
+
+	int branchX(final int branch) {
+		return (int) Math.round(width * (branch + 1.0) / (branches + 1));
+	}
+
+	/* The branch goes towards y = 0 or y = height - 1: */
+
+	int branchEndY(final int branch) {
+		return (branch % 2 == 0) ? 2 : height - 3;
+	}
+
+	ImagePlus image(final long seed) {
+		final Random random = new Random(seed);
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; ++z) {
+			final byte[] pixels = new byte[width * height];
+			for (int y = 0; y < height; ++y)
+				for (int x = 0; x < width; ++x) {
+					final double ty = y - trunkY(x);
+					final double tz = z - trunkZ(x);
+					double d2 = ty * ty + tz * tz;
+					for (int b = 0; b < branches; ++b) {
+						final int bx = branchX(b);
+						final double by = trunkY(bx);
+						final boolean beside = (branchEndY(b) < by) ? y <= by : y >= by;
+						if (!beside)
+							continue;
+						final double dx = x - bx;
+						final double dz = z - trunkZ(bx);
+						d2 = Math.min(d2, dx * dx + dz * dz);
+					}
+					final double value = 200 * Math.exp(-d2 / 8) + random.nextInt(30);
+					pixels[y * width + x] = (byte) Math.min(255, value);
+				}
+			stack.addSlice(null, new ByteProcessor(width, height, pixels));
+		}
+		return new ImagePlus("synthetic neurites", stack);
+	}
+
+	Path trunk() {
+		final Path trunk = new Path(1, 1, 1, "pixels");
+		for (int x = 2; x < width - 2; ++x)
+			trunk.addPointDouble(x, Math.round(trunkY(x)), Math.round(trunkZ(x)));
+		return trunk;
+	}
+
+	Path branch(final int branch) {
+		final Path result = new Path(1, 1, 1, "pixels");
+		final int bx = branchX(branch);
+		final int startY = (int) Math.round(trunkY(bx));
+		final int endY = branchEndY(branch);
+		final int step = (endY > startY) ? 1 : -1;
+		for (int y = startY; y != endY + step; y += step)
+			result.addPointDouble(bx, y, Math.round(trunkZ(bx)));
+		return result;
+	}
+
+	/* The trunk and branches, with each branch joined to the trunk: */
+
+	List<Path> tracings() {
+		final List<Path> result = new ArrayList<>();
+		final Path trunk = trunk();
+		result.add(trunk);
+		for (int b = 0; b < branches; ++b) {
+			final Path branch = branch(b);
+			final int bx = branchX(b);
+			branch.setStartJoin(trunk, trunk.getPointInImage(bx - 2));
+			result.add(branch);
+		}
+		return result;
+	}
+
+	PathAndFillManager pathAndFillManager() {
+		final PathAndFillManager result = new PathAndFillManager(width, height, depth, 1, 1, 1, "pixels");
+		for (final Path p : tracings())
+			result.addPath(p);
+		return result;
+	}
+}
@@ -0,0 +1,84 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+/* Time tracing along the trunk of a synthetic neurite, with and without the
+   Hessian-based cost */
+
+package tracing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import features.ComputeCurvatures;
+import ij.ImagePlus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TracerBenchmark {
+
+	@Param({ "false", "true" })
+	boolean useHessian;
+
+	SyntheticNeurites neurites;
+	ImagePlus image;
+	ComputeCurvatures hessian;
+
+	@Setup
+	public void setUp() {
+		neurites = new SyntheticNeurites(200, 100, 40, 4);
+		image = neurites.image(1);
+		if (useHessian) {
+			hessian = new ComputeCurvatures(image, 1.0, null, true);
+			hessian.run();
+		}
+	}
+
+	@Benchmark
+	public Path trace() {
+		final int startX = 4;
+		final int goalX = neurites.width - 5;
+		final TracerThread tracer = new TracerThread(image, 0, 255, -1, 1000, startX,
+				(int) Math.round(neurites.trunkY(startX)), (int) Math.round(neurites.trunkZ(startX)), goalX,
+				(int) Math.round(neurites.trunkY(goalX)), (int) Math.round(neurites.trunkZ(goalX)), true,
+				false, hessian, useHessian ? 4 : 1, null, useHessian);
+		tracer.run();
+		return tracer.getResult();
+	}
+}
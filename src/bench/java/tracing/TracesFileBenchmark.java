@@ -0,0 +1,87 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+/* Time writing and loading the tracings of a synthetic neurite as a
+   .traces file */
+
+package tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TracesFileBenchmark {
+
+	PathAndFillManager pathAndFillManager;
+	File tracesFile;
+	String tracesFileAsString;
+
+	@Setup
+	public void setUp() throws IOException {
+		pathAndFillManager = new SyntheticNeurites(400, 200, 60, 40).pathAndFillManager();
+		tracesFile = File.createTempFile("synthetic-neurites", ".traces");
+		pathAndFillManager.writeXML(tracesFile.getAbsolutePath(), false);
+		tracesFileAsString = new String(Files.readAllBytes(tracesFile.toPath()), StandardCharsets.UTF_8);
+	}
+
+	@TearDown
+	public void tearDown() {
+		tracesFile.delete();
+	}
+
+	@Benchmark
+	public File writeXML() throws IOException {
+		pathAndFillManager.writeXML(tracesFile.getAbsolutePath(), false);
+		return tracesFile;
+	}
+
+	@Benchmark
+	public PathAndFillManager load() {
+		final PathAndFillManager loaded = new PathAndFillManager();
+		if (!loaded.loadFromString(tracesFileAsString))
+			throw new RuntimeException("Failed to load the synthetic traces file");
+		return loaded;
+	}
+}
@@ -89,11 +89,16 @@ public class AutoSearchThread extends SearchThread {
 
 	@Override
 	protected void addingNode(final SearchNode n) {
-		if (tubeValues[n.z][n.y * width + n.x] > tubenessThreshold) {
-			final AutoPoint p = new AutoPoint(n.x, n.y, n.z);
+		addingNode(n.x, n.y, n.z);
+	}
+
+	@Override
+	protected void addingNode(final int x, final int y, final int z) {
+		if (tubeValues[z][y * width + x] > tubenessThreshold) {
+			final AutoPoint p = new AutoPoint(x, y, z);
 			destinations.add(p);
-		} else if (null != previousPathGraph.get(n.x, n.y, n.z)) {
-			final AutoPoint p = new AutoPoint(n.x, n.y, n.z);
+		} else if (null != previousPathGraph.get(x, y, z)) {
+			final AutoPoint p = new AutoPoint(x, y, z);
 			destinations.add(p);
 		}
 	}
@@ -110,7 +115,10 @@ public class AutoSearchThread extends SearchThread {
 	}
 
 	Path getPathBack(final int from_x, final int from_y, final int from_z) {
-		return nodes_as_image_from_start[from_z][from_y * width + from_x].asPath(x_spacing, y_spacing, z_spacing,
+		if (usePrimitiveEngine)
+			return state_from_start.asPath(from_x, from_y, from_z, x_spacing, y_spacing, z_spacing, spacing_units,
+					false);
+		return nodes_as_image_from_start.get(from_x, from_y, from_z).asPath(x_spacing, y_spacing, z_spacing,
 				spacing_units);
 	}
 
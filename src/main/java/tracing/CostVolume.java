@@ -0,0 +1,162 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/*
+ * The cost of moving to each voxel of an image, worked out once in advance so
+ * that a search just has to look it up rather than converting the image value
+ * again every time a voxel is considered. These are the costs that
+ * SearchThread.costMovingTo() and TracerThread.costMovingTo() (without the
+ * Hessian) calculate, so one CostVolume can be shared by any number of
+ * TracerThreads and FillerThreads on the same image - see
+ * SearchThread.setCostVolume(). The slices are converted in parallel.
+ *
+ * This takes four bytes per voxel, and doesn't notice if the image is
+ * changed, so whoever keeps it around should check matches() before reusing
+ * it.
+ */
+
+public class CostVolume {
+
+	/* The cost is 1 / (the value scaled to 0 to 255), or 2 where that's 0: */
+	public static final int RECIPROCAL = 0;
+
+	/* The cost is 256 - (the value scaled to 0 to 255): */
+	public static final int INVERTED = 1;
+
+	final ImagePlus imagePlus;
+	final ImageStack stack;
+	final float stackMin;
+	final float stackMax;
+	final int costFunction;
+
+	final int width;
+	final int height;
+	final int depth;
+
+	final float[][] costs;
+
+	public CostVolume(final ImagePlus imagePlus, final float stackMin, final float stackMax,
+			final int costFunction) {
+
+		if (costFunction != RECIPROCAL && costFunction != INVERTED)
+			throw new RuntimeException("BUG: unknown cost function " + costFunction);
+
+		this.imagePlus = imagePlus;
+		this.stack = imagePlus.getStack();
+		this.stackMin = stackMin;
+		this.stackMax = stackMax;
+		this.costFunction = costFunction;
+
+		width = imagePlus.getWidth();
+		height = imagePlus.getHeight();
+		depth = imagePlus.getStackSize();
+
+		costs = new float[depth][];
+
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final ExecutorService es = Executors.newFixedThreadPool(Math.min(processors, depth));
+		try {
+			final List<Future<Object>> futures = new ArrayList<>();
+			for (int z = 0; z < depth; ++z) {
+				final int slice = z;
+				futures.add(es.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						costs[slice] = costsInSlice(slice);
+						return null;
+					}
+				}));
+			}
+			for (final Future<Object> future : futures)
+				future.get();
+		} catch (final InterruptedException e) {
+			throw new RuntimeException("Interrupted while calculating the cost volume", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof OutOfMemoryError)
+				throw (OutOfMemoryError) e.getCause();
+			throw new RuntimeException("Calculating the cost volume failed", e.getCause());
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	private float[] costsInSlice(final int z) {
+		final float[] result = new float[width * height];
+		final Object pixels = stack.getPixels(z + 1);
+		final int imageType = imagePlus.getType();
+		for (int i = 0; i < result.length; ++i) {
+			double value = -1;
+			switch (imageType) {
+			case ImagePlus.GRAY8:
+			case ImagePlus.COLOR_256:
+				value = ((byte[]) pixels)[i] & 0xFF;
+				break;
+			case ImagePlus.GRAY16:
+				value = ((short[]) pixels)[i];
+				value = 255.0 * (value - stackMin) / (stackMax - stackMin);
+				break;
+			case ImagePlus.GRAY32:
+				value = ((float[]) pixels)[i];
+				value = 255.0 * (value - stackMin) / (stackMax - stackMin);
+				break;
+			}
+			if (costFunction == INVERTED)
+				result[i] = (float) (256 - value);
+			else
+				result[i] = (float) ((value == 0) ? 2.0 : 1.0 / value);
+		}
+		return result;
+	}
+
+	/*
+	 * Returns true if this was calculated from the current pixels of that
+	 * image with these settings, so can still be used for it.
+	 */
+
+	public boolean matches(final ImagePlus imagePlus, final float stackMin, final float stackMax,
+			final int costFunction) {
+		if (imagePlus != this.imagePlus || imagePlus.getStack() != stack)
+			return false;
+		if (imagePlus.getWidth() != width || imagePlus.getHeight() != height || imagePlus.getStackSize() != depth)
+			return false;
+		return stackMin == this.stackMin && stackMax == this.stackMax && costFunction == this.costFunction;
+	}
+
+	public float getCost(final int x, final int y, final int z) {
+		return costs[z][y * width + x];
+	}
+}
@@ -24,41 +24,109 @@
 
 package tracing;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class Fill {
 
 	public double distanceThreshold;
 
-	public class Node {
-		public int x;
-		public int y;
-		public int z;
-		public double distance;
-		public int previous;
-		public boolean open;
-	}
+	/*
+	 * The points in the fill are kept in parallel arrays rather than as an
+	 * object each, since a fill can have millions of them. For each point
+	 * there's its position, its distance from the source paths, the index of
+	 * the point it was reached from (or -1) and whether it was still in the
+	 * open list of the search.
+	 */
 
-	ArrayList<Node> nodeList;
+	int size;
+	int[] xs;
+	int[] ys;
+	int[] zs;
+	float[] distances;
+	int[] previous;
+	boolean[] open;
 
 	public Fill() {
-		nodeList = new ArrayList<>();
+		this(1024);
+	}
+
+	public Fill(final int initialCapacity) {
+		final int capacity = Math.max(1, initialCapacity);
+		xs = new int[capacity];
+		ys = new int[capacity];
+		zs = new int[capacity];
+		distances = new float[capacity];
+		previous = new int[capacity];
+		open = new boolean[capacity];
+	}
+
+	public void ensureCapacity(final int capacity) {
+		if (capacity <= xs.length)
+			return;
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		zs = Arrays.copyOf(zs, capacity);
+		distances = Arrays.copyOf(distances, capacity);
+		previous = Arrays.copyOf(previous, capacity);
+		open = Arrays.copyOf(open, capacity);
 	}
 
 	public void add(final int x, final int y, final int z, final double distance, final int previous,
 			final boolean open) {
-		final Node n = new Node();
-		n.x = x;
-		n.y = y;
-		n.z = z;
-		n.distance = distance;
-		n.previous = previous;
-		n.open = open;
-		nodeList.add(n);
+		if (size == xs.length)
+			ensureCapacity(Math.max(size + 1, size + (size >> 1)));
+		xs[size] = x;
+		ys[size] = y;
+		zs[size] = z;
+		distances[size] = (float) distance;
+		this.previous[size] = previous;
+		this.open[size] = open;
+		++size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getX(final int i) {
+		return xs[i];
+	}
+
+	public int getY(final int i) {
+		return ys[i];
+	}
+
+	public int getZ(final int i) {
+		return zs[i];
+	}
+
+	public float getDistance(final int i) {
+		return distances[i];
+	}
+
+	/* The index of the point this one was reached from, or -1: */
+
+	public int getPrevious(final int i) {
+		return previous[i];
+	}
+
+	public boolean isOpen(final int i) {
+		return open[i];
 	}
 
 	Set<Path> sourcePaths;
@@ -105,16 +173,145 @@ public class Fill {
 
 	public void writeNodesXML(final PrintWriter pw) {
 
-		int i = 0;
-		for (final Node n : nodeList) {
-			pw.println("    <node id=\"" + i + "\" " + "x=\"" + n.x + "\" " + "y=\"" + n.y + "\" " + "z=\"" + n.z
-					+ "\" " + ((n.previous >= 0) ? "previousid=\"" + n.previous + "\" " : "") + "distance=\""
-					+ n.distance + "\" status=\"" + (n.open ? "open" : "closed") + "\"/>");
-			++i;
+		for (int i = 0; i < size; ++i) {
+			pw.println("    <node id=\"" + i + "\" " + "x=\"" + xs[i] + "\" " + "y=\"" + ys[i] + "\" " + "z=\""
+					+ zs[i] + "\" " + ((previous[i] >= 0) ? "previousid=\"" + previous[i] + "\" " : "")
+					+ "distance=\"" + distances[i] + "\" status=\"" + (open[i] ? "open" : "closed") + "\"/>");
+		}
+	}
+
+	/*
+	 * Rather than one <node> element per point, the points can be written as
+	 * the text of a single <nodes> element, in a binary form that's compressed
+	 * and then base64 encoded. For each point in turn this has:
+	 *
+	 * - the differences of x, y and z from those of the previous point
+	 * - the difference between the index of the point and the index of its
+	 *   predecessor (or nothing if it hasn't got one), combined with whether
+	 *   the point is open
+	 * - the distance, as a float
+	 *
+	 * The integers are written as zig-zag varints, and since the points are
+	 * mostly next to the point before, the result compresses well.
+	 */
+
+	public static final String BINARY_NODES_ENCODING = "delta-deflate-base64";
+
+	static final byte BINARY_NODES_VERSION = 1;
+
+	public void writeNodesBinary(final PrintWriter pw) throws IOException {
+		pw.println("    <nodes encoding=\"" + BINARY_NODES_ENCODING + "\" count=\"" + size + "\">");
+		final OutputStream toWriter = new OutputStream() {
+
+			@Override
+			public void write(final int b) {
+				pw.write(b);
+			}
+		};
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new DeflaterOutputStream(Base64.getMimeEncoder().wrap(toWriter))));
+		out.writeByte(BINARY_NODES_VERSION);
+		int lastX = 0, lastY = 0, lastZ = 0;
+		for (int i = 0; i < size; ++i) {
+			writeVarint(out, zigZag(xs[i] - lastX));
+			writeVarint(out, zigZag(ys[i] - lastY));
+			writeVarint(out, zigZag(zs[i] - lastZ));
+			final int previousCode = (previous[i] < 0) ? 0 : zigZag(i - previous[i]) + 1;
+			writeVarint(out, (previousCode << 1) | (open[i] ? 1 : 0));
+			out.writeFloat(distances[i]);
+			lastX = xs[i];
+			lastY = ys[i];
+			lastZ = zs[i];
+		}
+		out.close();
+		pw.println();
+		pw.println("    </nodes>");
+	}
+
+	/*
+	 * Adds the points from the text of a <nodes> element written by
+	 * writeNodesBinary(). Throws an IOException if it's corrupt or doesn't
+	 * have count points. The count comes from the file, so the arrays only
+	 * grow as points are actually decoded.
+	 */
+
+	public void readNodesBinary(final CharSequence text, final int count) throws IOException {
+		if (count < 0)
+			throw new IOException("The fill's node count was negative");
+		final byte[] compressed;
+		try {
+			compressed = Base64.getMimeDecoder().decode(text.toString());
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("The fill's nodes weren't valid base64: " + e.getMessage());
+		}
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+		try {
+			final byte version = in.readByte();
+			if (version != BINARY_NODES_VERSION)
+				throw new IOException("Unknown version of binary fill nodes: " + version);
+			// Only a guess, since the count can't be trusted:
+			ensureCapacity(size + Math.min(count, compressed.length));
+			final int first = size;
+			int x = 0, y = 0, z = 0;
+			for (int i = 0; i < count; ++i) {
+				x += unZigZag(readVarint(in));
+				y += unZigZag(readVarint(in));
+				z += unZigZag(readVarint(in));
+				final int flags = readVarint(in);
+				final int previousCode = flags >>> 1;
+				final int previousIndex = (previousCode == 0) ? -1 : first + i - unZigZag(previousCode - 1);
+				if (previousIndex >= (long) first + count || previousIndex < -1)
+					throw new IOException("A fill node's predecessor was out of range");
+				add(x, y, z, in.readFloat(), previousIndex, (flags & 1) != 0);
+			}
+			if (in.read() != -1)
+				throw new IOException("There were more fill nodes than expected");
+		} catch (final EOFException e) {
+			throw new IOException("There were fewer fill nodes than expected");
+		} finally {
+			in.close();
 		}
 	}
 
+	private static int zigZag(final int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int unZigZag(final int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static void writeVarint(final DataOutputStream out, int n) throws IOException {
+		while ((n & ~0x7F) != 0) {
+			out.writeByte((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		out.writeByte(n);
+	}
+
+	private static int readVarint(final InputStream in) throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = in.read();
+			if (b < 0)
+				throw new EOFException();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return result;
+		}
+		throw new IOException("Malformed varint in fill nodes");
+	}
+
 	public void writeXML(final PrintWriter pw, final int fillIndex) {
+		try {
+			writeXML(pw, fillIndex, false);
+		} catch (final IOException e) {
+			throw new RuntimeException("BUG: writing nodes as XML can't fail", e);
+		}
+	}
+
+	public void writeXML(final PrintWriter pw, final int fillIndex, final boolean binaryNodes) throws IOException {
 		pw.print("  <fill id=\"" + fillIndex + "\"");
 		if ((sourcePaths != null) && (sourcePaths.size() > 0)) {
 			pw.print(" frompaths=\"");
@@ -123,7 +320,10 @@ public class Fill {
 		}
 		pw.print(" volume=\"" + getVolume() + "\"");
 		pw.println(" metric=\"" + getMetric() + "\" threshold=\"" + getThreshold() + "\">");
-		writeNodesXML(pw);
+		if (binaryNodes)
+			writeNodesBinary(pw);
+		else
+			writeNodesXML(pw);
 		pw.println("  </fill>");
 	}
 
@@ -133,14 +333,24 @@ public class Fill {
 	 */
 
 	public double getVolume() {
-		int subThresholdNodes = 0;
-		for (final Node n : nodeList) {
-			if (n.distance <= distanceThreshold)
-				++subThresholdNodes;
+		if (subThresholdNodesSize != size || subThresholdNodesThreshold != distanceThreshold) {
+			int subThresholdNodes = 0;
+			for (int i = 0; i < size; ++i) {
+				if (distances[i] <= distanceThreshold)
+					++subThresholdNodes;
+			}
+			this.subThresholdNodes = subThresholdNodes;
+			subThresholdNodesSize = size;
+			subThresholdNodesThreshold = distanceThreshold;
 		}
 		return subThresholdNodes * x_spacing * y_spacing * z_spacing;
 	}
 
+	/* The number of sub-threshold nodes when there were this many nodes and this threshold: */
+	private int subThresholdNodes;
+	private int subThresholdNodesSize = -1;
+	private double subThresholdNodesThreshold;
+
 	// FIXME: the next two should just be one method, really:
 
 	public String getSourcePathsStringMachine() {
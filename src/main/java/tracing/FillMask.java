@@ -0,0 +1,141 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+import java.util.Arrays;
+
+/*
+ * The voxels of a fill that are within its threshold, as runs of voxels
+ * along each row rather than as a dense copy of the image. For each slice
+ * there's an array of (y, start, end) triples, one per run, in order of y and
+ * then start, with end being one past the last x in the run; slices that the
+ * fill doesn't reach have no array at all. See FillerThread.getFillMask().
+ */
+
+public class FillMask {
+
+	final int width;
+	final int height;
+	final int depth;
+
+	final int[][] spans;
+
+	FillMask(final int width, final int height, final int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		spans = new int[depth][];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/* z is 0-based, as for the rest of these methods: */
+
+	public boolean isEmpty(final int z) {
+		return spans[z] == null;
+	}
+
+	public int getSpanCount(final int z) {
+		return (spans[z] == null) ? 0 : spans[z].length / 3;
+	}
+
+	public int getSpanY(final int z, final int span) {
+		return spans[z][3 * span];
+	}
+
+	public int getSpanStart(final int z, final int span) {
+		return spans[z][3 * span + 1];
+	}
+
+	/* One past the last x in the span: */
+
+	public int getSpanEnd(final int z, final int span) {
+		return spans[z][3 * span + 2];
+	}
+
+	public boolean contains(final int x, final int y, final int z) {
+		final int[] s = spans[z];
+		if (s == null)
+			return false;
+		/* Find the first span on row y or later: */
+		int low = 0, high = s.length / 3;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (s[3 * middle] < y)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		for (int i = low; i < s.length / 3 && s[3 * i] == y; ++i)
+			if (x >= s[3 * i + 1] && x < s[3 * i + 2])
+				return true;
+		return false;
+	}
+
+	public long getVoxelCount() {
+		long result = 0;
+		for (int z = 0; z < depth; ++z)
+			for (int i = 0; i < getSpanCount(z); ++i)
+				result += getSpanEnd(z, i) - getSpanStart(z, i);
+		return result;
+	}
+
+	/*
+	 * Collects the spans of one slice, which must be added in order of y and
+	 * then x.
+	 */
+
+	static class SliceBuilder {
+
+		private int[] spans = new int[3 * 64];
+		private int length;
+
+		void add(final int y, final int start, final int end) {
+			if (length > 0 && spans[length - 3] == y && spans[length - 1] == start) {
+				spans[length - 1] = end;
+				return;
+			}
+			if (length == spans.length)
+				spans = Arrays.copyOf(spans, spans.length * 2);
+			spans[length++] = y;
+			spans[length++] = start;
+			spans[length++] = end;
+		}
+
+		int[] build() {
+			return (length == 0) ? null : Arrays.copyOf(spans, length);
+		}
+	}
+}
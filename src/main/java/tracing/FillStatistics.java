@@ -0,0 +1,181 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+import java.util.Arrays;
+
+/*
+ * Running statistics of the points that a fill has closed, kept as a
+ * histogram by distance from the source paths so that the statistics for
+ * any threshold can be found from the bins rather than by going through
+ * every point. For each bin there's the number of points, the sum, minimum
+ * and maximum of their values in the image, and their bounding box.
+ *
+ * The distances of fills vary over many orders of magnitude with the metric
+ * and the image, so the bins are spaced logarithmically from MINIMUM to
+ * MAXIMUM, each about 0.7% wider than the one before; the first bin is for
+ * distances below MINIMUM. The number of points and the sum for a threshold
+ * count the bin the threshold falls in in proportion to how far through it
+ * the threshold is, but the minimum, maximum and bounding box include the
+ * whole of that bin. So these are estimates, and since points that are
+ * still open aren't counted, they can be less than Fill.getVolume(), which
+ * counts every point within the threshold. It's safe for one thread to add
+ * points while others call summarize().
+ */
+
+public class FillStatistics {
+
+	static final int BINS = 4096;
+	static final double MINIMUM = 1e-6;
+	static final double MAXIMUM = 1e7;
+
+	private static final double LOG_MINIMUM = Math.log(MINIMUM);
+	private static final double LOG_RATIO = (Math.log(MAXIMUM) - LOG_MINIMUM) / (BINS - 1);
+
+	private final long[] counts = new long[BINS];
+	private final double[] sums = new double[BINS];
+	private final float[] minimums = new float[BINS];
+	private final float[] maximums = new float[BINS];
+
+	/* minX, maxX, minY, maxY, minZ, maxZ for each bin: */
+	private final int[] boxes = new int[6 * BINS];
+
+	private final double voxelVolume;
+
+	public FillStatistics(final double voxelVolume) {
+		this.voxelVolume = voxelVolume;
+		Arrays.fill(minimums, Float.MAX_VALUE);
+		Arrays.fill(maximums, -Float.MAX_VALUE);
+		for (int i = 0; i < boxes.length; i += 2) {
+			boxes[i] = Integer.MAX_VALUE;
+			boxes[i + 1] = Integer.MIN_VALUE;
+		}
+	}
+
+	static int bin(final double distance) {
+		if (distance < MINIMUM)
+			return 0;
+		return Math.min(BINS - 1, 1 + (int) ((Math.log(distance) - LOG_MINIMUM) / LOG_RATIO));
+	}
+
+	/* The smallest distance in a bin: */
+
+	static double binStart(final int bin) {
+		return (bin == 0) ? 0 : Math.exp(LOG_MINIMUM + (bin - 1) * LOG_RATIO);
+	}
+
+	public synchronized void add(final int x, final int y, final int z, final double distance, final float value) {
+		final int bin = bin(distance);
+		++counts[bin];
+		sums[bin] += value;
+		if (value < minimums[bin])
+			minimums[bin] = value;
+		if (value > maximums[bin])
+			maximums[bin] = value;
+		final int b = 6 * bin;
+		if (x < boxes[b])
+			boxes[b] = x;
+		if (x > boxes[b + 1])
+			boxes[b + 1] = x;
+		if (y < boxes[b + 2])
+			boxes[b + 2] = y;
+		if (y > boxes[b + 3])
+			boxes[b + 3] = y;
+		if (z < boxes[b + 4])
+			boxes[b + 4] = z;
+		if (z > boxes[b + 5])
+			boxes[b + 5] = z;
+	}
+
+	/*
+	 * Takes back a point that was added with this distance, if the search has
+	 * found a shorter way to it. The minimum, maximum and bounding box can't
+	 * be taken back, so they may then be slightly too generous.
+	 */
+
+	public synchronized void remove(final double distance, final float value) {
+		final int bin = bin(distance);
+		if (counts[bin] == 0)
+			return;
+		--counts[bin];
+		sums[bin] -= value;
+	}
+
+	/* The number of points in each bin, for drawing a histogram: */
+
+	public synchronized long[] getCounts() {
+		return counts.clone();
+	}
+
+	public static class Summary {
+		public double threshold;
+		public long voxels;
+		public double volume;
+		public double sum;
+		public double mean;
+		public float minimum;
+		public float maximum;
+		/* minX, maxX, minY, maxY, minZ, maxZ, or null if there are no points: */
+		public int[] boundingBox;
+	}
+
+	public synchronized Summary summarize(final double threshold) {
+		final Summary result = new Summary();
+		result.threshold = threshold;
+		result.minimum = Float.MAX_VALUE;
+		result.maximum = -Float.MAX_VALUE;
+		final int[] box = { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE,
+				Integer.MAX_VALUE, Integer.MIN_VALUE };
+		final int lastBin = (threshold < 0) ? -1 : bin(threshold);
+		double voxels = 0;
+		for (int bin = 0; bin <= lastBin; ++bin) {
+			if (counts[bin] == 0)
+				continue;
+			double fraction = 1;
+			if (bin == lastBin && bin > 0 && bin < BINS - 1) {
+				final double start = binStart(bin);
+				fraction = Math.min(1, (threshold - start) / (binStart(bin + 1) - start));
+			}
+			voxels += fraction * counts[bin];
+			result.sum += fraction * sums[bin];
+			result.minimum = Math.min(result.minimum, minimums[bin]);
+			result.maximum = Math.max(result.maximum, maximums[bin]);
+			for (int i = 0; i < 6; i += 2) {
+				box[i] = Math.min(box[i], boxes[6 * bin + i]);
+				box[i + 1] = Math.max(box[i + 1], boxes[6 * bin + i + 1]);
+			}
+		}
+		result.voxels = Math.round(voxels);
+		result.volume = result.voxels * voxelVolume;
+		if (voxels > 0) {
+			result.mean = result.sum / voxels;
+			result.boundingBox = box;
+		} else {
+			result.minimum = result.maximum = Float.NaN;
+			result.mean = Double.NaN;
+		}
+		return result;
+	}
+}
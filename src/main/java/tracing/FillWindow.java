@@ -75,6 +75,7 @@ public class FillWindow extends JFrame
 	protected JPanel fillControlPanel;
 
 	protected JLabel fillStatus;
+	protected JLabel fillStatistics;
 
 	protected float maxThresholdValue = 0;
 
@@ -84,6 +85,7 @@ public class FillWindow extends JFrame
 	protected JButton setMaxThreshold;
 
 	protected JButton view3D;
+	protected JButton exportDistanceMap;
 	protected JCheckBox maskNotReal;
 	protected JCheckBox transparent;
 
@@ -106,6 +108,7 @@ public class FillWindow extends JFrame
 		setThreshold.setEnabled(true);
 		setMaxThreshold.setEnabled(true);
 		view3D.setEnabled(true);
+		exportDistanceMap.setEnabled(true);
 		maskNotReal.setEnabled(true);
 		transparent.setEnabled(true);
 		pauseOrRestartFilling.setEnabled(true);
@@ -124,6 +127,7 @@ public class FillWindow extends JFrame
 		setThreshold.setEnabled(false);
 		setMaxThreshold.setEnabled(false);
 		view3D.setEnabled(false);
+		exportDistanceMap.setEnabled(false);
 		maskNotReal.setEnabled(false);
 		transparent.setEnabled(false);
 		pauseOrRestartFilling.setEnabled(false);
@@ -142,6 +146,7 @@ public class FillWindow extends JFrame
 		setThreshold.setEnabled(false);
 		setMaxThreshold.setEnabled(false);
 		view3D.setEnabled(false);
+		exportDistanceMap.setEnabled(false);
 		maskNotReal.setEnabled(false);
 		transparent.setEnabled(false);
 		pauseOrRestartFilling.setEnabled(false);
@@ -219,6 +224,10 @@ public class FillWindow extends JFrame
 			fillingOptionsPanel.add(fillStatus, cf);
 			++cf.gridy;
 
+			fillStatistics = new JLabel(" ");
+			fillingOptionsPanel.add(fillStatistics, cf);
+			++cf.gridy;
+
 			cf.gridx = 0;
 			cf.gridwidth = 1;
 			cf.fill = GridBagConstraints.NONE;
@@ -272,6 +281,12 @@ public class FillWindow extends JFrame
 			cf.gridy++;
 			fillingOptionsPanel.add(maskNotReal, cf);
 
+			exportDistanceMap = new JButton("Export Distance Map...");
+			exportDistanceMap.addActionListener(this);
+			cf.insets = new Insets(8, 0, 0, 0);
+			cf.gridy++;
+			fillingOptionsPanel.add(exportDistanceMap, cf);
+
 			c.gridx = 0;
 			++c.gridy;
 			c.insets = new Insets(8, 8, 8, 8);
@@ -393,6 +408,36 @@ public class FillWindow extends JFrame
 
 			plugin.viewFillIn3D(!maskNotReal.isSelected());
 
+		} else if (source == exportDistanceMap) {
+
+			final FillerThread filler = plugin.filler;
+			if (filler == null) {
+				SNT.error("There's no fill in progress to export the distance map of.");
+				return;
+			}
+
+			final SaveDialog sd = new SaveDialog("Export distance map as...", "distances", ".tif");
+
+			if (sd.getFileName() == null) {
+				return;
+			}
+
+			final File saveFile = new File(sd.getDirectory(), sd.getFileName());
+			if (saveFile.exists()) {
+				if (!IJ.showMessageWithCancel("Export data...",
+						"The file " + saveFile.getAbsolutePath() + " already exists.\n" + "Do you want to replace it?"))
+					return;
+			}
+
+			IJ.showStatus("Exporting the distance map to " + saveFile.getAbsolutePath());
+
+			try {
+				filler.saveDistanceMap(saveFile);
+			} catch (final IOException ioe) {
+				SNT.error("Saving to " + saveFile.getAbsolutePath() + " failed");
+				return;
+			}
+
 		} else if (source == exportAsCSV) {
 
 			final SaveDialog sd = new SaveDialog("Export fill summary as...", "fills", ".csv");
@@ -441,6 +486,39 @@ public class FillWindow extends JFrame
 				thresholdField.setText(df4.format(f));
 			}
 		});
+		final FillerThread filler = plugin.filler;
+		if (filler != null)
+			showStatistics(filler.getStatistics().summarize(f));
+	}
+
+	protected DecimalFormat df2 = new DecimalFormat("0.00");
+
+	/*
+	 * Shows the volume and intensities of the fill within the threshold. These
+	 * come from the histogram in FillStatistics, so they're estimates: only
+	 * the points that the search has closed are counted, and the bin that the
+	 * threshold falls in is counted in proportion. The volume that's exported
+	 * with the fill also counts the open points within the threshold, so it
+	 * can be a little larger.
+	 */
+
+	protected void showStatistics(final FillStatistics.Summary summary) {
+		final String units = (plugin.spacing_units == null) ? "" : plugin.spacing_units;
+		final String text;
+		if (summary.voxels == 0)
+			text = "(Nothing within the threshold yet.)";
+		else
+			text = "<html>Volume: ~" + df2.format(summary.volume) + " " + units + "\u00B3 (~" + summary.voxels
+					+ " closed voxels)<br>Intensity: mean " + df2.format(summary.mean) + ", min " + df2.format(summary.minimum)
+					+ ", max " + df2.format(summary.maximum) + "<br>Bounds: x " + summary.boundingBox[0] + "-"
+					+ summary.boundingBox[1] + ", y " + summary.boundingBox[2] + "-" + summary.boundingBox[3] + ", z "
+					+ (summary.boundingBox[4] + 1) + "-" + (summary.boundingBox[5] + 1) + "</html>";
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				fillStatistics.setText(text);
+			}
+		});
 	}
 
 	@Override
@@ -457,7 +535,10 @@ public class FillWindow extends JFrame
 
 	@Override
 	public void pointsInSearch(final SearchInterface source, final int inOpen, final int inClosed) {
-		// Do nothing...
+		if (source instanceof FillerThread) {
+			final FillerThread filler = (FillerThread) source;
+			showStatistics(filler.getStatistics().summarize(filler.getThreshold()));
+		}
 	}
 
 	@Override
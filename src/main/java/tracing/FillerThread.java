@@ -25,15 +25,26 @@
 package tracing;
 
 import java.awt.Graphics;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.VirtualStack;
+import ij.io.FileSaver;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 
 public class FillerThread extends SearchThread {
@@ -41,9 +52,11 @@ public class FillerThread extends SearchThread {
 	static final boolean verbose = SimpleNeuriteTracer.verbose;
 
 	/*
-	 * You should synchronize on this object if you want to rely on the pause
-	 * status not changing. (The run() method is not synchronized itself, for
-	 * possibly dubious performance reasons.)
+	 * The pause status is guarded by a lock inside SearchThread, so
+	 * synchronizing on this object doesn't stop it changing. The plugin only
+	 * pauses and unpauses a fill (including by changing its threshold) from
+	 * methods synchronized on the plugin, so while one of those holds the
+	 * plugin's monitor the only change can be the fill pausing itself.
 	 */
 
 	boolean reciprocal;
@@ -56,54 +69,131 @@ public class FillerThread extends SearchThread {
 		final int y = (int) Math.round(yd);
 		final int z = (int) Math.round(zd);
 
-		final SearchNode[] slice = nodes_as_image_from_start[z];
-		if (slice == null)
-			return -1.0f;
+		return getDistance(x, y, z);
+	}
+
+	/* Returns -1 if the search hasn't reached that point */
+
+	float getDistance(final int x, final int y, final int z) {
+
+		if (usePrimitiveEngine) {
+			if (!state_from_start.reached(x, y, z))
+				return -1.0f;
+			return state_from_start.getG(x, y, z);
+		}
 
-		final SearchNode n = slice[y * width + x];
+		final SearchNode n = nodes_as_image_from_start.get(x, y, z);
 		if (n == null)
 			return -1.0f;
 		else
 			return n.g;
 	}
 
+	boolean sliceReached(final int z) {
+		if (usePrimitiveEngine)
+			return state_from_start.sliceReached(z);
+		return nodes_as_image_from_start.sliceReached(z);
+	}
+
+	/*
+	 * The closed points of the search come first in the fill and then the
+	 * open ones. Each is found by scanning the pages the search has reached,
+	 * and the index of each point in the fill is kept in a table per page,
+	 * so that the predecessors can be looked up without hashing.
+	 */
+
 	// FIXME: may be buggy, synchronization issues
 
 	Fill getFill() {
 
-		final Hashtable<SearchNode, Integer> h = new Hashtable<>();
+		final VoxelPages pages = usePrimitiveEngine ? state_from_start : nodes_as_image_from_start;
+		final int[][] indices = new int[pages.pages][];
+		final byte[] statusInPass = { CLOSED_FROM_START, OPEN_FROM_START };
 
-		final ArrayList<SearchNode> a = new ArrayList<>();
+		int i = 0;
+		for (final byte wanted : statusInPass)
+			for (int page = 0; page < pages.pages; ++page) {
+				if (!pages.pageAllocated(page))
+					continue;
+				final int length = pageLength(page);
+				if (indices[page] == null) {
+					indices[page] = new int[length];
+					Arrays.fill(indices[page], -1);
+				}
+				for (int k = 0; k < length; ++k)
+					if (statusAt(page, k) == wanted)
+						indices[page][k] = i++;
+			}
 
-		// The tricky bit here is that we want to create a
-		// Fill object with index
+		if (verbose)
+			SNT.log("getFill found " + i + " points");
+
+		final Fill fill = createEmptyFill(i);
+
+		for (final byte wanted : statusInPass)
+			for (int page = 0; page < pages.pages; ++page) {
+				if (!pages.pageAllocated(page))
+					continue;
+				final int length = pageLength(page);
+				for (int k = 0; k < length; ++k) {
+					if (statusAt(page, k) != wanted)
+						continue;
+					final int x = pages.x(page, k);
+					final int y = pages.y(page, k);
+					final int z = pages.z(page, k);
+					int previousIndex = -1;
+					final float g;
+					if (usePrimitiveEngine) {
+						final VoxelSearchState state = state_from_start;
+						g = state.g[page][k];
+						final int code = state.predecessor[page][k];
+						if (code != VoxelSearchState.NO_PREDECESSOR) {
+							final int px = x + code / 9 - 1;
+							final int py = y + (code / 3) % 3 - 1;
+							final int pz = z + code % 3 - 1;
+							final int[] pageIndices = indices[state.page(px, py, pz)];
+							if (pageIndices != null)
+								previousIndex = pageIndices[state.offset(px, py, pz)];
+						}
+					} else {
+						final SearchNode n = nodes_as_image_from_start.nodes[page][k];
+						g = n.g;
+						final SearchNode p = n.getPredecessor();
+						if (p != null) {
+							final int[] pageIndices = indices[pages.page(p.x, p.y, p.z)];
+							if (pageIndices != null)
+								previousIndex = pageIndices[pages.offset(p.x, p.y, p.z)];
+						}
+					}
+					fill.add(x, y, z, g, previousIndex, wanted == OPEN_FROM_START);
+				}
+			}
 
-		int openAtOrAbove;
+		if (sourcePaths != null) {
+			fill.setSourcePaths(sourcePaths);
+		}
 
-		int i = 0;
+		return fill;
+	}
 
-		for (final SearchNode current : closed_from_start) {
-			/* if( current.g <= threshold ) { */
-			h.put(current, new Integer(i));
-			a.add(current);
-			++i;
-			/* } */
-		}
+	private int pageLength(final int page) {
+		if (usePrimitiveEngine)
+			return state_from_start.status[page].length;
+		return nodes_as_image_from_start.nodes[page].length;
+	}
 
-		openAtOrAbove = i;
+	/* The search status of a point in a page that's been allocated, or 0: */
 
-		if (verbose)
-			SNT.log("openAtOrAbove is: " + openAtOrAbove);
-
-		for (final SearchNode current : open_from_start) {
-			/* if( current.g <= threshold ) { */
-			h.put(current, new Integer(i));
-			a.add(current);
-			++i;
-			/* } */
-		}
+	private byte statusAt(final int page, final int k) {
+		if (usePrimitiveEngine)
+			return state_from_start.status[page][k];
+		final SearchNode n = nodes_as_image_from_start.nodes[page][k];
+		return (n == null) ? 0 : n.searchStatus;
+	}
 
-		final Fill fill = new Fill();
+	private Fill createEmptyFill(final int capacity) {
+
+		final Fill fill = new Fill(capacity);
 
 		fill.setThreshold(threshold);
 		if (reciprocal)
@@ -113,26 +203,6 @@ public class FillerThread extends SearchThread {
 
 		fill.setSpacing(x_spacing, y_spacing, z_spacing, spacing_units);
 
-		if (verbose)
-			SNT.log("... out of a.size() " + a.size() + " entries");
-
-		for (i = 0; i < a.size(); ++i) {
-			final SearchNode f = a.get(i);
-			int previousIndex = -1;
-			final SearchNode previous = f.getPredecessor();
-			if (previous != null) {
-				final Integer p = h.get(previous);
-				if (p != null) {
-					previousIndex = p.intValue();
-				}
-			}
-			fill.add(f.x, f.y, f.z, f.g, previousIndex, i >= openAtOrAbove);
-		}
-
-		if (sourcePaths != null) {
-			fill.setSourcePaths(sourcePaths);
-		}
-
 		return fill;
 	}
 
@@ -140,6 +210,18 @@ public class FillerThread extends SearchThread {
 
 	public static FillerThread fromFill(final ImagePlus imagePlus, final float stackMin, final float stackMax,
 			final boolean startPaused, final Fill fill) {
+		return fromFill(imagePlus, stackMin, stackMax, startPaused, fill, false);
+	}
+
+	/*
+	 * The points of the fill are loaded straight into the search engine that
+	 * is asked for, with the open list only put in order once they're all
+	 * there, so that restoring a large fill takes O(n). With the primitive
+	 * engine no SearchNodes are created at all.
+	 */
+
+	public static FillerThread fromFill(final ImagePlus imagePlus, final float stackMin, final float stackMax,
+			final boolean startPaused, final Fill fill, final boolean usePrimitiveEngine) {
 
 		boolean reciprocal;
 		final String metric = fill.getMetric();
@@ -159,36 +241,85 @@ public class FillerThread extends SearchThread {
 		final FillerThread result = new FillerThread(imagePlus, stackMin, stackMax, startPaused, reciprocal,
 				fill.getThreshold(), 5000);
 
-		final ArrayList<SearchNode> tempNodes = new ArrayList<>();
-
-		for (final Fill.Node n : fill.nodeList) {
-
-			final SearchNode s = new SearchNode(n.x, n.y, n.z, (float) n.distance, 0, null, SearchThread.FREE);
-			tempNodes.add(s);
-		}
+		result.setUsePrimitiveEngine(usePrimitiveEngine);
+
+		if (usePrimitiveEngine) {
+			for (int i = 0; i < fill.size(); ++i) {
+				final int x = fill.getX(i);
+				final int y = fill.getY(i);
+				final int z = fill.getZ(i);
+				final float g = fill.getDistance(i);
+				final boolean open = fill.isOpen(i);
+				result.loadVoxel(x, y, z, g, g, predecessorCode(fill, i), open, true);
+				if (!open)
+					result.closedNode(x, y, z, g, true);
+			}
+		} else {
+			final SearchNode[] tempNodes = new SearchNode[fill.size()];
 
-		for (int i = 0; i < tempNodes.size(); ++i) {
-			final Fill.Node n = fill.nodeList.get(i);
-			final SearchNode s = tempNodes.get(i);
-			if (n.previous >= 0) {
-				s.setPredecessor(tempNodes.get(n.previous));
+			for (int i = 0; i < tempNodes.length; ++i) {
+				tempNodes[i] = new SearchNode(fill.getX(i), fill.getY(i), fill.getZ(i), fill.getDistance(i), 0, null,
+						SearchThread.FREE);
 			}
-			if (n.open) {
-				s.searchStatus = OPEN_FROM_START;
-				result.addNode(s, true);
-			} else {
-				s.searchStatus = CLOSED_FROM_START;
-				result.addNode(s, true);
+
+			for (int i = 0; i < tempNodes.length; ++i) {
+				final SearchNode s = tempNodes[i];
+				if (fill.getPrevious(i) >= 0) {
+					s.setPredecessor(tempNodes[fill.getPrevious(i)]);
+				}
+				if (fill.isOpen(i)) {
+					s.searchStatus = OPEN_FROM_START;
+					result.loadNode(s, true);
+				} else {
+					s.searchStatus = CLOSED_FROM_START;
+					result.loadNode(s, true);
+					result.closedNode(s.x, s.y, s.z, s.g, true);
+				}
 			}
 		}
+		result.finishLoading();
 		result.setSourcePaths(fill.sourcePaths);
 		return result;
 	}
 
+	/* As VoxelSearchState.predecessorCode(SearchNode), for a point in a Fill: */
+
+	private static byte predecessorCode(final Fill fill, final int i) {
+		final int previous = fill.getPrevious(i);
+		if (previous < 0)
+			return VoxelSearchState.NO_PREDECESSOR;
+		final int xdiff = fill.getX(previous) - fill.getX(i);
+		final int ydiff = fill.getY(previous) - fill.getY(i);
+		final int zdiff = fill.getZ(previous) - fill.getZ(i);
+		if (Math.abs(xdiff) > 1 || Math.abs(ydiff) > 1 || Math.abs(zdiff) > 1)
+			return VoxelSearchState.NO_PREDECESSOR;
+		return VoxelSearchState.predecessorCode(xdiff, ydiff, zdiff);
+	}
+
 	float threshold;
 
 	public void setThreshold(final double threshold) {
 		this.threshold = (float) threshold;
+		resumeIfPausedAtLimit();
+	}
+
+	/*
+	 * If this is more than zero, the fill stops exploring once everything
+	 * closer than the threshold times this margin has been found, rather than
+	 * carrying on through the whole image until it's paused. Raising the
+	 * threshold then lets it carry on from the points it had reached. (The
+	 * margin is so that there's something to see, and click on, beyond the
+	 * threshold.)
+	 */
+
+	double thresholdMargin;
+
+	public void setThresholdMargin(final double thresholdMargin) {
+		this.thresholdMargin = thresholdMargin;
+	}
+
+	public double getThresholdMargin() {
+		return thresholdMargin;
 	}
 
 	public float getThreshold() {
@@ -208,6 +339,8 @@ public class FillerThread extends SearchThread {
 		this.reciprocal = reciprocal;
 		setThreshold(initialThreshold);
 
+		statistics = new FillStatistics(x_spacing * y_spacing * z_spacing);
+
 		setPriority(MIN_PRIORITY);
 	}
 
@@ -225,77 +358,145 @@ public class FillerThread extends SearchThread {
 		}
 	}
 
-	public ImagePlus fillAsImagePlus(final boolean realData) {
+	/*
+	 * The points within the threshold, found in parallel for each slice by
+	 * scanning only the pages that the search has reached.
+	 */
 
-		final byte[][] new_slice_data_b = new byte[depth][];
-		final short[][] new_slice_data_s = new short[depth][];
-		final float[][] new_slice_data_f = new float[depth][];
-
-		for (int z = 0; z < depth; ++z) {
-			switch (imageType) {
-			case ImagePlus.GRAY8:
-			case ImagePlus.COLOR_256:
-				new_slice_data_b[z] = new byte[width * height];
-				break;
-			case ImagePlus.GRAY16:
-				new_slice_data_s[z] = new short[width * height];
-				break;
-			case ImagePlus.GRAY32:
-				new_slice_data_f[z] = new float[width * height];
-				break;
-			}
-		}
+	public FillMask getFillMask() {
+		final FillMask mask = new FillMask(width, height, depth);
+		forEachSlice(new SliceTask() {
 
-		final ImageStack stack = new ImageStack(width, height);
+			@Override
+			public void run(final int z) {
+				mask.spans[z] = spansInSlice(z);
+			}
+		});
+		return mask;
+	}
 
-		for (int z = 0; z < depth; ++z) {
-			final SearchNode[] nodes_this_slice = nodes_as_image_from_start[z];
-			if (nodes_this_slice != null)
-				for (int y = 0; y < height; ++y) {
-					for (int x = 0; x < width; ++x) {
-						final SearchNode s = nodes_as_image_from_start[z][y * width + x];
-						if ((s != null) && (s.g <= threshold)) {
-							switch (imageType) {
-							case ImagePlus.GRAY8:
-							case ImagePlus.COLOR_256:
-								new_slice_data_b[z][y * width + x] = realData ? slices_data_b[z][y * width + x]
-										: (byte) 255;
-								break;
-							case ImagePlus.GRAY16:
-								new_slice_data_s[z][y * width + x] = realData ? slices_data_s[z][y * width + x] : 255;
-								break;
-							case ImagePlus.GRAY32:
-								new_slice_data_f[z][y * width + x] = realData ? slices_data_f[z][y * width + x] : 255;
-								break;
-							default:
-								break;
-							}
+	private int[] spansInSlice(final int z) {
+		final VoxelPages pages = usePrimitiveEngine ? state_from_start : nodes_as_image_from_start;
+		if (!pages.sliceReached(z))
+			return null;
+		final FillMask.SliceBuilder spans = new FillMask.SliceBuilder();
+		final int pageWidth = 1 << pages.xBits;
+		final int pageHeight = 1 << pages.yBits;
+		final int pz = z >> pages.zBits;
+		for (int py = 0; py < pages.yPages; ++py)
+			for (int yy = 0; yy < pageHeight; ++yy) {
+				final int y = (py << pages.yBits) | yy;
+				if (y >= height)
+					break;
+				final int rowOffset = ((((z & pages.zMask) << pages.yBits) | yy) << pages.xBits);
+				int start = -1;
+				for (int px = 0; px < pages.xPages; ++px) {
+					final int page = (pz * pages.yPages + py) * pages.xPages + px;
+					if (!pages.pageAllocated(page)) {
+						if (start >= 0)
+							spans.add(y, start, px << pages.xBits);
+						start = -1;
+						continue;
+					}
+					for (int xx = 0; xx < pageWidth; ++xx) {
+						final int x = (px << pages.xBits) | xx;
+						if (x >= width)
+							break;
+						final float distance = distanceAt(page, rowOffset | xx);
+						final boolean inFill = (distance >= 0) && (distance <= threshold);
+						if (inFill && start < 0)
+							start = x;
+						else if (!inFill && start >= 0) {
+							spans.add(y, start, x);
+							start = -1;
 						}
 					}
 				}
+				if (start >= 0)
+					spans.add(y, start, width);
+			}
+		return spans.build();
+	}
+
+	/* As getDistance(), for a voxel in a page that's been allocated: */
+
+	private float distanceAt(final int page, final int offset) {
+		if (usePrimitiveEngine)
+			return (state_from_start.status[page][offset] == 0) ? -1.0f : state_from_start.g[page][offset];
+		final SearchNode n = nodes_as_image_from_start.nodes[page][offset];
+		return (n == null) ? -1.0f : n.g;
+	}
 
-			switch (imageType) {
-			case ImagePlus.GRAY8:
-			case ImagePlus.COLOR_256:
-				final ByteProcessor bp = new ByteProcessor(width, height);
-				bp.setPixels(new_slice_data_b[z]);
-				stack.addSlice(null, bp);
-				break;
-			case ImagePlus.GRAY16:
-				final ShortProcessor sp = new ShortProcessor(width, height);
-				sp.setPixels(new_slice_data_s[z]);
-				stack.addSlice(null, sp);
-				break;
-			case ImagePlus.GRAY32:
-				final FloatProcessor fp = new FloatProcessor(width, height);
-				fp.setPixels(new_slice_data_f[z]);
-				stack.addSlice(null, fp);
-				break;
-			default:
-				break;
+	/*
+	 * An image of the fill, either with the values from the original image
+	 * (if realData is true) or 255 within the threshold, and 0 elsewhere.
+	 * Every slice has its own pixels, so the image can be edited like any
+	 * other.
+	 */
+
+	public ImagePlus fillAsImagePlus(final boolean realData) {
+		return fillAsImagePlus(getFillMask(), realData);
+	}
+
+	/* As above, but from a mask that's already been found with getFillMask(): */
+
+	public ImagePlus fillAsImagePlus(final FillMask mask, final boolean realData) {
+
+		final ImageProcessor[] processors = new ImageProcessor[depth];
+
+		forEachSlice(new SliceTask() {
+
+			@Override
+			public void run(final int z) {
+				final Object pixels = newSlicePixels();
+				for (int i = 0; i < mask.getSpanCount(z); ++i) {
+					final int from = mask.getSpanY(z, i) * width + mask.getSpanStart(z, i);
+					final int length = mask.getSpanEnd(z, i) - mask.getSpanStart(z, i);
+					switch (imageType) {
+					case ImagePlus.GRAY8:
+					case ImagePlus.COLOR_256:
+						if (realData)
+							System.arraycopy(slices_data_b[z], from, pixels, from, length);
+						else
+							Arrays.fill((byte[]) pixels, from, from + length, (byte) 255);
+						break;
+					case ImagePlus.GRAY16:
+						if (realData)
+							System.arraycopy(slices_data_s[z], from, pixels, from, length);
+						else
+							Arrays.fill((short[]) pixels, from, from + length, (short) 255);
+						break;
+					case ImagePlus.GRAY32:
+						if (realData)
+							System.arraycopy(slices_data_f[z], from, pixels, from, length);
+						else
+							Arrays.fill((float[]) pixels, from, from + length, 255);
+						break;
+					default:
+						break;
+					}
+				}
+				switch (imageType) {
+				case ImagePlus.GRAY8:
+				case ImagePlus.COLOR_256:
+					processors[z] = new ByteProcessor(width, height, (byte[]) pixels, null);
+					break;
+				case ImagePlus.GRAY16:
+					processors[z] = new ShortProcessor(width, height, (short[]) pixels, null);
+					break;
+				case ImagePlus.GRAY32:
+					processors[z] = new FloatProcessor(width, height, (float[]) pixels, null);
+					break;
+				default:
+					break;
+				}
 			}
+		});
 
-		}
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; ++z)
+			if (processors[z] != null)
+				stack.addSlice(null, processors[z]);
 
 		final ImagePlus imp = new ImagePlus("filled neuron", stack);
 
@@ -304,18 +505,210 @@ public class FillerThread extends SearchThread {
 		return imp;
 	}
 
+	/*
+	 * The distance from the source paths of every point that the search has
+	 * reached, as a 32-bit image in which the points it hasn't reached are
+	 * NaN. The stack is virtual: each slice is worked out when it's asked for,
+	 * looking only at the pages that the search has reached, so this only
+	 * needs memory for a slice at a time, however large the image is.
+	 */
+
+	public ImagePlus distanceMapAsImagePlus() {
+		final ImagePlus imp = new ImagePlus("fill distance map", new DistanceMapStack());
+		imp.setCalibration(imagePlus.getCalibration());
+		return imp;
+	}
+
+	/*
+	 * Writes the distance map to a TIFF file, one slice at a time (see
+	 * distanceMapAsImagePlus()):
+	 */
+
+	public void saveDistanceMap(final File file) throws IOException {
+		final FileSaver saver = new FileSaver(distanceMapAsImagePlus());
+		final boolean saved = (depth > 1) ? saver.saveAsTiffStack(file.getAbsolutePath())
+				: saver.saveAsTiff(file.getAbsolutePath());
+		if (!saved)
+			throw new IOException("Failed to write the distance map to " + file.getAbsolutePath());
+	}
+
+	public float[] distanceMapSlice(final int z) {
+		final float[] result = new float[width * height];
+		Arrays.fill(result, Float.NaN);
+		final VoxelPages pages = usePrimitiveEngine ? state_from_start : nodes_as_image_from_start;
+		if (!pages.sliceReached(z))
+			return result;
+		final int pageWidth = 1 << pages.xBits;
+		final int pageHeight = 1 << pages.yBits;
+		final int pz = z >> pages.zBits;
+		for (int py = 0; py < pages.yPages; ++py)
+			for (int px = 0; px < pages.xPages; ++px) {
+				final int page = (pz * pages.yPages + py) * pages.xPages + px;
+				if (!pages.pageAllocated(page))
+					continue;
+				for (int yy = 0; yy < pageHeight; ++yy) {
+					final int y = (py << pages.yBits) | yy;
+					if (y >= height)
+						break;
+					final int rowOffset = ((((z & pages.zMask) << pages.yBits) | yy) << pages.xBits);
+					for (int xx = 0; xx < pageWidth; ++xx) {
+						final int x = (px << pages.xBits) | xx;
+						if (x >= width)
+							break;
+						final float distance = distanceAt(page, rowOffset | xx);
+						if (distance >= 0)
+							result[y * width + x] = distance;
+					}
+				}
+			}
+		return result;
+	}
+
+	private class DistanceMapStack extends VirtualStack {
+
+		DistanceMapStack() {
+			super(width, height);
+		}
+
+		@Override
+		public int getSize() {
+			return depth;
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 32;
+		}
+
+		@Override
+		public String getSliceLabel(final int n) {
+			return null;
+		}
+
+		@Override
+		public Object getPixels(final int n) {
+			return distanceMapSlice(n - 1);
+		}
+
+		@Override
+		public ImageProcessor getProcessor(final int n) {
+			return new FloatProcessor(width, height, distanceMapSlice(n - 1), null);
+		}
+	}
+
+	private Object newSlicePixels() {
+		switch (imageType) {
+		case ImagePlus.GRAY8:
+		case ImagePlus.COLOR_256:
+			return new byte[width * height];
+		case ImagePlus.GRAY16:
+			return new short[width * height];
+		case ImagePlus.GRAY32:
+			return new float[width * height];
+		default:
+			return null;
+		}
+	}
+
+	private interface SliceTask {
+		void run(int z);
+	}
+
+	/* Runs the task for every slice, with the slices spread over the processors: */
+
+	private void forEachSlice(final SliceTask task) {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final ExecutorService es = Executors.newFixedThreadPool(Math.max(1, Math.min(processors, depth)));
+		try {
+			final List<Future<Object>> futures = new ArrayList<>();
+			for (int z = 0; z < depth; ++z) {
+				final int slice = z;
+				futures.add(es.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						task.run(slice);
+						return null;
+					}
+				}));
+			}
+			for (final Future<Object> future : futures)
+				future.get();
+		} catch (final InterruptedException e) {
+			throw new RuntimeException("Interrupted while going through the fill", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof OutOfMemoryError)
+				throw (OutOfMemoryError) e.getCause();
+			throw new RuntimeException("Going through the fill failed", e.getCause());
+		} finally {
+			es.shutdown();
+		}
+	}
+
+	/*
+	 * Statistics of the points that have been closed so far, updated as the
+	 * search goes, so that the volume and intensities within any threshold
+	 * can be found without going through the points (see FillStatistics).
+	 */
+
+	final FillStatistics statistics;
+
+	public FillStatistics getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	protected void closedNode(final int x, final int y, final int z, final float g, final boolean fromStart) {
+		statistics.add(x, y, z, g, valueAt(x, y, z));
+	}
+
+	@Override
+	protected void reopenedNode(final int x, final int y, final int z, final float g, final boolean fromStart) {
+		statistics.remove(g, valueAt(x, y, z));
+	}
+
+	private float valueAt(final int x, final int y, final int z) {
+		switch (imageType) {
+		case ImagePlus.GRAY8:
+		case ImagePlus.COLOR_256:
+			return slices_data_b[z][y * width + x] & 0xFF;
+		case ImagePlus.GRAY16:
+			return slices_data_s[z][y * width + x] & 0xFFFF;
+		case ImagePlus.GRAY32:
+			return slices_data_f[z][y * width + x];
+		default:
+			return 0;
+		}
+	}
+
+	/* The minimum distance in the open list, or -1 if it's empty: */
+
+	float minimumDistanceInOpen() {
+		if (usePrimitiveEngine) {
+			if (state_from_start.openCount() == 0)
+				return -1.0f;
+			final long p = state_from_start.peekOpen();
+			return state_from_start.getG(state_from_start.x(p), state_from_start.y(p), state_from_start.z(p));
+		}
+		final SearchNode p = open_from_start.peek();
+		return (p == null) ? -1.0f : p.g;
+	}
+
+	@Override
+	protected boolean searchLimitReached() {
+		if (thresholdMargin <= 0)
+			return false;
+		return minimumDistanceInOpen() > threshold * thresholdMargin;
+	}
+
 	@Override
 	protected void reportPointsInSearch() {
 
 		super.reportPointsInSearch();
 
-		// Find the minimum distance in the open list.
-		final SearchNode p = open_from_start.peek();
-		if (p == null)
+		final float minimumDistanceInOpen = minimumDistanceInOpen();
+		if (minimumDistanceInOpen < 0)
 			return;
 
-		final float minimumDistanceInOpen = p.g;
-
 		for (final SearchProgressCallback progress : progressListeners) {
 			if (progress instanceof FillerProgressCallback) {
 				final FillerProgressCallback fillerProgress = (FillerProgressCallback) progress;
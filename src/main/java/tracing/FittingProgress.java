@@ -24,36 +24,39 @@
 
 package tracing;
 
-import java.util.ArrayList;
-
 import ij.IJ;
 
 /**
  * An implementation of the MultiTaskProgress interface that updates the ImageJ
- * progress bar
+ * progress bar. The fitting reports progress often, from several threads at
+ * once, so this keeps a running total rather than adding up all the tasks
+ * each time, and only updates the progress bar when the percentage done
+ * changes.
  */
 
 public class FittingProgress implements MultiTaskProgress {
-	ArrayList<Double> tasksProportionsDone;
+	double[] tasksProportionsDone;
+	double totalDone;
 	int totalTasks;
+	int lastPercentage = -1;
 
 	public FittingProgress(final int totalTasks) {
-		tasksProportionsDone = new ArrayList<>();
+		tasksProportionsDone = new double[totalTasks];
 		this.totalTasks = totalTasks;
-		for (int i = 0; i < totalTasks; ++i)
-			tasksProportionsDone.add(0.0);
 	}
 
 	@Override
 	synchronized public void updateProgress(final double proportion, final int taskIndex) {
-		tasksProportionsDone.set(taskIndex, proportion);
+		totalDone += proportion - tasksProportionsDone[taskIndex];
+		tasksProportionsDone[taskIndex] = proportion;
+		final int percentage = (int) (100 * totalDone / totalTasks);
+		if (percentage == lastPercentage)
+			return;
+		lastPercentage = percentage;
 		updateStatus();
 	}
 
 	protected void updateStatus() {
-		double totalDone = 0;
-		for (final double p : tasksProportionsDone)
-			totalDone += p;
 		IJ.showProgress(totalDone / totalTasks);
 	}
 
@@ -644,6 +644,11 @@ public class NeuriteTracerResultsDialog extends JDialog implements ActionListene
 				case FITTING_PATHS:
 					updateStatusText("Fitting volumes around neurons...");
 					disableEverything();
+
+					cancelSearch.setText("Cancel");
+					cancelSearch.setEnabled(true);
+					cancelSearch.setVisible(true);
+
 					break;
 
 				case CALCULATING_GAUSSIAN:
@@ -1249,6 +1254,7 @@ public class NeuriteTracerResultsDialog extends JDialog implements ActionListene
 			final int preSavingState = currentState;
 			changeState(SAVING);
 			try {
+				pathAndFillManager.setWriteBinaryFills(plugin.useBinaryFills);
 				pathAndFillManager.writeXML(savePath, plugin.useCompressedXML);
 			} catch (final IOException ioe) {
 				IJ.showStatus("Saving failed.");
@@ -1522,6 +1528,9 @@ public class NeuriteTracerResultsDialog extends JDialog implements ActionListene
 			} else if (currentState == CALCULATING_GAUSSIAN) {
 				updateStatusText("Cancelling Gaussian generation...");
 				plugin.cancelGaussian();
+			} else if (currentState == FITTING_PATHS) {
+				updateStatusText("Cancelling fitting...");
+				pw.cancelFitting();
 			} else {
 				SNT.error("BUG! (wrong state for cancelling...)");
 			}
@@ -0,0 +1,293 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package tracing;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/*
+ * Samples an image on square grids in planes through a point, normal to a
+ * given vector, with trilinear interpolation - these are the normal planes
+ * that Path.fitCircles() fits circles in. This keeps hold of the pixel arrays
+ * of the 8, 16 or 32 bit slices and reads them directly, rather than
+ * converting the stack for each plane, so one sampler should be made for an
+ * image and reused. The samples are written into arrays that the caller
+ * supplies, and samplePlanes() does all the planes for a run of points at
+ * once.
+ *
+ * Grid points where any of the eight surrounding voxels is off the image are
+ * given the value 0. Nothing here changes the sampler, so it can be used from
+ * several threads at once.
+ */
+
+public class NormalPlaneSampler {
+
+	private static final int BYTE = 0;
+	private static final int SHORT = 1;
+	private static final int FLOAT = 2;
+
+	final int width;
+	final int height;
+	final int depth;
+
+	final double x_spacing;
+	final double y_spacing;
+	final double z_spacing;
+
+	private final int pixelType;
+	private final byte[][] byteSlices;
+	private final short[][] shortSlices;
+	private final float[][] floatSlices;
+
+	public NormalPlaneSampler(final ImagePlus image, final double x_spacing, final double y_spacing,
+			final double z_spacing) {
+
+		width = image.getWidth();
+		height = image.getHeight();
+		depth = image.getStackSize();
+		this.x_spacing = x_spacing;
+		this.y_spacing = y_spacing;
+		this.z_spacing = z_spacing;
+
+		final ImageStack stack = image.getStack();
+		byte[][] bytes = null;
+		short[][] shorts = null;
+		float[][] floats = null;
+		switch (image.getType()) {
+		case ImagePlus.GRAY8:
+		case ImagePlus.COLOR_256:
+			pixelType = BYTE;
+			bytes = new byte[depth][];
+			for (int z = 0; z < depth; ++z)
+				bytes[z] = (byte[]) stack.getPixels(z + 1);
+			break;
+		case ImagePlus.GRAY16:
+			pixelType = SHORT;
+			shorts = new short[depth][];
+			for (int z = 0; z < depth; ++z)
+				shorts[z] = (short[]) stack.getPixels(z + 1);
+			break;
+		case ImagePlus.GRAY32:
+			pixelType = FLOAT;
+			floats = new float[depth][];
+			for (int z = 0; z < depth; ++z)
+				floats[z] = (float[]) stack.getPixels(z + 1);
+			break;
+		default:
+			throw new RuntimeException("Normal planes can only be sampled from 8, 16 or 32 bit images");
+		}
+		byteSlices = bytes;
+		shortSlices = shorts;
+		floatSlices = floats;
+	}
+
+	/*
+	 * Find two unit vectors perpendicular to (nx,ny,nz) and to each other,
+	 * and return them multiplied by step. (This is in the same units as the
+	 * spacing.)
+	 */
+
+	public static void basisVectors(final double nx, final double ny, final double nz, final double step,
+			final double[] x_basis_vector, final int x_basis_offset, final double[] y_basis_vector,
+			final int y_basis_offset) {
+
+		final double epsilon = 0.000001;
+
+		/*
+		 * To find an arbitrary vector in the normal plane, do the cross product
+		 * with (0,0,1), unless the normal is parallel to that, in which case we
+		 * cross it with (0,1,0) instead...
+		 */
+
+		double ax, ay, az;
+
+		if (Math.abs(nx) < epsilon && Math.abs(ny) < epsilon) {
+			// Cross with (0,1,0):
+			ax = nz;
+			ay = 0;
+			az = -nx;
+		} else {
+			// Cross with (0,0,1):
+			ax = -ny;
+			ay = nx;
+			az = 0;
+		}
+
+		/*
+		 * Now to find the other vector in that plane, do the cross product of
+		 * (ax,ay,az) with (nx,ny,nz)
+		 */
+
+		double bx = ay * nz - az * ny;
+		double by = az * nx - ax * nz;
+		double bz = ax * ny - ay * nx;
+
+		/* Normalize a and b */
+
+		final double a_size = Math.sqrt(ax * ax + ay * ay + az * az);
+		ax = ax / a_size;
+		ay = ay / a_size;
+		az = az / a_size;
+
+		final double b_size = Math.sqrt(bx * bx + by * by + bz * bz);
+		bx = bx / b_size;
+		by = by / b_size;
+		bz = bz / b_size;
+
+		x_basis_vector[x_basis_offset] = ax * step;
+		x_basis_vector[x_basis_offset + 1] = ay * step;
+		x_basis_vector[x_basis_offset + 2] = az * step;
+
+		y_basis_vector[y_basis_offset] = bx * step;
+		y_basis_vector[y_basis_offset + 1] = by * step;
+		y_basis_vector[y_basis_offset + 2] = bz * step;
+	}
+
+	/*
+	 * Sample the side x side grid centred on (ox,oy,oz) normal to
+	 * (nx,ny,nz), with the grid points step apart. The value at grid point
+	 * (i,j) goes in result[resultOffset + j * side + i], and the scaled basis
+	 * vectors of the plane are returned in x_basis_vector and y_basis_vector.
+	 */
+
+	public void samplePlane(final int side, final double step, final double ox, final double oy, final double oz,
+			final double nx, final double ny, final double nz, final double[] x_basis_vector,
+			final double[] y_basis_vector, final float[] result, final int resultOffset) {
+		basisVectors(nx, ny, nz, step, x_basis_vector, 0, y_basis_vector, 0);
+		sampleGrid(side, ox, oy, oz, x_basis_vector, 0, y_basis_vector, 0, result, resultOffset);
+	}
+
+	/*
+	 * The batched version of samplePlane(): centres and normals hold count
+	 * points and vectors as consecutive x, y, z triples, the basis vectors
+	 * for each plane are returned in the same way, and plane k is written to
+	 * result starting at k * side * side.
+	 */
+
+	public void samplePlanes(final int count, final int side, final double step, final double[] centres,
+			final double[] normals, final double[] x_basis_vectors, final double[] y_basis_vectors,
+			final float[] result) {
+		if (result.length < count * side * side)
+			throw new RuntimeException("BUG: the result array is too small for " + count + " planes");
+		for (int k = 0; k < count; ++k)
+			basisVectors(normals[3 * k], normals[3 * k + 1], normals[3 * k + 2], step, x_basis_vectors, 3 * k,
+					y_basis_vectors, 3 * k);
+		for (int k = 0; k < count; ++k)
+			sampleGrid(side, centres[3 * k], centres[3 * k + 1], centres[3 * k + 2], x_basis_vectors, 3 * k,
+					y_basis_vectors, 3 * k, result, k * side * side);
+	}
+
+	private void sampleGrid(final int side, final double ox, final double oy, final double oz, final double[] a,
+			final int aOffset, final double[] b, final int bOffset, final float[] result, final int resultOffset) {
+
+		final double ax_s = a[aOffset], ay_s = a[aOffset + 1], az_s = a[aOffset + 2];
+		final double bx_s = b[bOffset], by_s = b[bOffset + 1], bz_s = b[bOffset + 2];
+
+		final double midside_grid = ((side - 1) / 2.0f);
+
+		for (int grid_j = 0; grid_j < side; ++grid_j) {
+			final double gj = midside_grid - grid_j;
+			final int rowStart = resultOffset + grid_j * side;
+			for (int grid_i = 0; grid_i < side; ++grid_i) {
+
+				final double gi = midside_grid - grid_i;
+
+				// Denormalize to pixel co-ordinates:
+
+				final double image_x = (ox + gi * ax_s + gj * bx_s) / x_spacing;
+				final double image_y = (oy + gi * ay_s + gj * by_s) / y_spacing;
+				final double image_z = (oz + gi * az_s + gj * bz_s) / z_spacing;
+
+				result[rowStart + grid_i] = (float) interpolate(image_x, image_y, image_z);
+			}
+		}
+	}
+
+	/* The trilinear interpolation of the image at a point, in pixel units: */
+
+	public double interpolate(final double image_x, final double image_y, final double image_z) {
+
+		final double x_d = image_x - Math.floor(image_x);
+		final double y_d = image_y - Math.floor(image_y);
+		final double z_d = image_z - Math.floor(image_z);
+
+		final int x_f = (int) Math.floor(image_x);
+		final int x_c = (int) Math.ceil(image_x);
+		final int y_f = (int) Math.floor(image_y);
+		final int y_c = (int) Math.ceil(image_y);
+		final int z_f = (int) Math.floor(image_z);
+		final int z_c = (int) Math.ceil(image_z);
+
+		double fff = 0, cff = 0, fcf = 0, ccf = 0;
+		double ffc = 0, cfc = 0, fcc = 0, ccc = 0;
+
+		if (x_f >= 0 && y_f >= 0 && z_f >= 0 && x_c < width && y_c < height && z_c < depth) {
+
+			final int ff = width * y_f + x_f;
+			final int cf = width * y_c + x_f;
+			final int fc = width * y_f + x_c;
+			final int cc = width * y_c + x_c;
+
+			switch (pixelType) {
+			case BYTE: {
+				final byte[] f = byteSlices[z_f], c = byteSlices[z_c];
+				fff = f[ff] & 0xFF; cff = c[ff] & 0xFF;
+				fcf = f[cf] & 0xFF; ccf = c[cf] & 0xFF;
+				ffc = f[fc] & 0xFF; cfc = c[fc] & 0xFF;
+				fcc = f[cc] & 0xFF; ccc = c[cc] & 0xFF;
+				break;
+			}
+			case SHORT: {
+				final short[] f = shortSlices[z_f], c = shortSlices[z_c];
+				fff = f[ff]; cff = c[ff];
+				fcf = f[cf]; ccf = c[cf];
+				ffc = f[fc]; cfc = c[fc];
+				fcc = f[cc]; ccc = c[cc];
+				break;
+			}
+			default: {
+				final float[] f = floatSlices[z_f], c = floatSlices[z_c];
+				fff = f[ff]; cff = c[ff];
+				fcf = f[cf]; ccf = c[cf];
+				ffc = f[fc]; cfc = c[fc];
+				fcc = f[cc]; ccc = c[cc];
+				break;
+			}
+			}
+		}
+
+		final double i1 = (1 - z_d) * (fff) + (cff) * z_d;
+		final double i2 = (1 - z_d) * (fcf) + (ccf) * z_d;
+
+		final double j1 = (1 - z_d) * (ffc) + (cfc) * z_d;
+		final double j2 = (1 - z_d) * (fcc) + (ccc) * z_d;
+
+		final double w1 = i1 * (1 - y_d) + i2 * y_d;
+		final double w2 = j1 * (1 - y_d) + j2 * y_d;
+
+		return w1 * (1 - x_d) + w2 * x_d;
+	}
+}
@@ -28,9 +28,16 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.scijava.vecmath.Color3f;
 import org.scijava.vecmath.Point3f;
@@ -972,6 +979,18 @@ public class Path implements Comparable<Path> {
 	// FIXME: adapt these for Path rather than SegmentedConnection, down to
 	// EOFIT
 
+	/*
+	 * The badness of a circle in a side x side square of data is the sum over
+	 * the points inside it of (max - value)^2, plus the sum over the points
+	 * outside it of (value - min)^2, plus a penalty for each point of a grid
+	 * around the circle that's off the edge of the square, divided by the
+	 * number of points. Expanding the squares, that only depends on the
+	 * number of points inside the circle and the sum of their values, so this
+	 * keeps a running sum along each row of the data, and evaluateCircle() just
+	 * has to find where each row enters and leaves the circle. Nothing is
+	 * allocated for each evaluation.
+	 */
+
 	class CircleAttempt implements MultivariateFunction, Comparable<CircleAttempt> {
 
 		double min;
@@ -979,20 +998,53 @@ public class Path implements Comparable<Path> {
 		double[] initial;
 
 		float[] data;
+		int dataOffset;
 		float minValueInData;
 		float maxValueInData;
 		int side;
 
+		/* rowSums[j * (side + 1) + i] is the sum of the first i values in row j */
+		final double[] rowSums;
+		final double sumOfValues;
+		final double sumOfSquares;
+		final double maximumPointPenalty;
+
 		public CircleAttempt(final double[] start, final float[] data, final float minValueInData,
 				final float maxValueInData, final int side) {
+			this(start, data, 0, minValueInData, maxValueInData, side);
+		}
+
+		/* The square of data can start at dataOffset in a larger array: */
+
+		public CircleAttempt(final double[] start, final float[] data, final int dataOffset,
+				final float minValueInData, final float maxValueInData, final int side) {
 
 			this.data = data;
+			this.dataOffset = dataOffset;
 			this.minValueInData = minValueInData;
 			this.maxValueInData = maxValueInData;
 			this.side = side;
 
 			min = Double.MAX_VALUE;
 			initial = start;
+			best = new double[start.length];
+
+			rowSums = new double[side * (side + 1)];
+			double sum = 0;
+			double squares = 0;
+			for (int j = 0; j < side; ++j) {
+				double rowSum = 0;
+				for (int i = 0; i < side; ++i) {
+					final double value = data[dataOffset + j * side + i];
+					rowSum += value;
+					squares += value * value;
+					rowSums[j * (side + 1) + i + 1] = rowSum;
+				}
+				sum += rowSum;
+			}
+			sumOfValues = sum;
+			sumOfSquares = squares;
+			maximumPointPenalty = (maxValueInData - minValueInData) * (maxValueInData - minValueInData);
 		}
 
 		@Override
@@ -1025,7 +1077,7 @@ public class Path implements Comparable<Path> {
 			final double badness = evaluateCircle(x[0], x[1], x[2]);
 
 			if (badness < min) {
-				best = x.clone();
+				System.arraycopy(x, 0, best, 0, best.length);
 				min = badness;
 			}
 
@@ -1034,421 +1086,268 @@ public class Path implements Comparable<Path> {
 
 		public double evaluateCircle(final double x, final double y, final double r) {
 
-			final double maximumPointPenalty = (maxValueInData - minValueInData) * (maxValueInData - minValueInData);
+			final double rSquared = r * r;
 
-			double badness = 0;
+			long pointsInside = 0;
+			double sumInside = 0;
 
-			for (int i = 0; i < side; ++i) {
-				for (int j = 0; j < side; ++j) {
-					final float value = data[j * side + i];
-					if (r * r > ((i - x) * (i - x) + (j - y) * (j - y)))
-						badness += (maxValueInData - value) * (maxValueInData - value);
-					else
-						badness += (value - minValueInData) * (value - minValueInData);
-				}
+			for (int j = 0; j < side; ++j) {
+				final double dySquared = (j - y) * (j - y);
+				if (!(rSquared > dySquared))
+					continue;
+				/*
+				 * The points of this row inside the circle are those with
+				 * (i - x)^2 < rSquared - dySquared; the ends found with sqrt()
+				 * are then moved so that they agree exactly with that test.
+				 */
+				final double halfWidth = Math.sqrt(rSquared - dySquared);
+				int first = (int) Math.max(0, Math.ceil(x - halfWidth));
+				int last = (int) Math.min(side - 1, Math.floor(x + halfWidth));
+				while (first > 0 && inside(first - 1, x, rSquared, dySquared))
+					--first;
+				while (first <= last && !inside(first, x, rSquared, dySquared))
+					++first;
+				while (last < side - 1 && inside(last + 1, x, rSquared, dySquared))
+					++last;
+				while (last >= first && !inside(last, x, rSquared, dySquared))
+					--last;
+				if (first > last)
+					continue;
+				pointsInside += last - first + 1;
+				sumInside += rowSums[j * (side + 1) + last + 1] - rowSums[j * (side + 1) + first];
 			}
 
+			final double maxValue = maxValueInData;
+			final double minValue = minValueInData;
+			final long pointsOutside = (long) side * side - pointsInside;
+			final double sumOutside = sumOfValues - sumInside;
+
+			double badness = sumOfSquares + pointsInside * maxValue * maxValue - 2 * maxValue * sumInside
+					+ pointsOutside * minValue * minValue - 2 * minValue * sumOutside;
+
+			/*
+			 * The penalty is for each (ic, jc) on the grid that's off the
+			 * square, which is all of them except those where both are on it:
+			 */
+			long iCount = 0, iOnSquare = 0;
 			for (double ic = (x - r); ic <= (x + r); ++ic) {
-				for (double jc = (y - r); jc <= (y + r); ++jc) {
-					if (ic < 0 || ic > side || jc < 0 || jc > side)
-						badness += maximumPointPenalty;
-				}
+				++iCount;
+				if (ic >= 0 && ic <= side)
+					++iOnSquare;
+			}
+			long jCount = 0, jOnSquare = 0;
+			for (double jc = (y - r); jc <= (y + r); ++jc) {
+				++jCount;
+				if (jc >= 0 && jc <= side)
+					++jOnSquare;
 			}
+			badness += maximumPointPenalty * (iCount * jCount - iOnSquare * jOnSquare);
 
 			badness /= (side * side);
 
 			return badness;
 		}
 
-	}
-
-	public boolean isFittedVersionOfAnotherPath() {
-		return fittedVersionOf != null;
-	}
-
-	Path fitted; // If this path has a fitted version, this is it.
-	boolean useFitted = false; // Use the fitted version in preference to this
-								// path
-	Path fittedVersionOf; // If this path is a fitted version of another one,
-							// this is the original
-
-	public void setFitted(final Path p) {
-		if (fitted != null) {
-			throw new RuntimeException("BUG: Trying to set a fitted path when there already is one...");
+		private boolean inside(final int i, final double x, final double rSquared, final double dySquared) {
+			return rSquared > ((i - x) * (i - x) + dySquared);
 		}
-		fitted = p;
-		p.fittedVersionOf = this;
-	}
-
-	public void setUseFitted(final boolean useFitted) {
-		setUseFitted(useFitted, null);
-	}
 
-	public void setUseFitted(final boolean useFitted, final SimpleNeuriteTracer plugin) {
-
-		if (useFitted && fitted == null)
-			throw new RuntimeException("BUG: setUseFitted(true) was called, but the 'fitted' member was null");
-
-		this.useFitted = useFitted;
 	}
 
-	public boolean getUseFitted() {
-		return useFitted;
-	}
+	/*
+	 * The first stage of fitCircles(): for each point of the path, sample the
+	 * plane normal to the path there and optimize a circle in it. The points
+	 * are independent of each other, so they're spread over a fork-join pool;
+	 * each task has its own scratch arrays and writes only the elements of the
+	 * result arrays for its own points. If several paths are fitted in the
+	 * same pool (see PathFitter) then idle workers take chunks of points from
+	 * whichever path still has them. Setting the cancelled flag stops the
+	 * tasks after the point they're on.
+	 */
 
-	public Path getFitted() {
-		return fitted;
-	}
+	class CircleFits {
 
-	public void setGuessedTangents(final int pointsEitherSide) {
-		if (tangents_x == null || tangents_y == null || tangents_z == null)
-			throw new RuntimeException("BUG: setGuessedTangents called with one of the tangent arrays null");
-		final double[] tangent = new double[3];
-		for (int i = 0; i < points; ++i) {
-			getTangent(i, pointsEitherSide, tangent);
-			tangents_x[i] = tangent[0];
-			tangents_y[i] = tangent[1];
-			tangents_z[i] = tangent[2];
-		}
-	}
+		static final int POINTS_PER_TASK = 16;
+		static final int TANGENT_POINTS_EITHER_SIDE = 4;
 
-	public void getTangent(final int i, final int pointsEitherSide, final double[] result) {
-		int min_index = i - pointsEitherSide;
-		if (min_index < 0)
-			min_index = 0;
+		final int side;
+		final ImagePlus image;
+		final int width;
+		final int height;
+		final int depth;
+		final double scaleInNormalPlane;
+		final int progressIndex;
+		final MultiTaskProgress progress;
+		final ForkJoinPool pool;
+		final AtomicBoolean cancelled;
+		final NormalPlaneSampler sampler;
 
-		int max_index = i + pointsEitherSide;
-		if (max_index >= points)
-			max_index = points - 1;
+		final double[] centre_x_positionsUnscaled;
+		final double[] centre_y_positionsUnscaled;
+		final double[] rs;
+		final double[] rsUnscaled;
 
-		result[0] = precise_x_positions[max_index] - precise_x_positions[min_index];
-		result[1] = precise_y_positions[max_index] - precise_y_positions[min_index];
-		result[2] = precise_z_positions[max_index] - precise_z_positions[min_index];
-	}
+		final double[] ts_x;
+		final double[] ts_y;
+		final double[] ts_z;
 
-	public float[] squareNormalToVector(final int side, // The number of samples
-														// in x and y in the
-														// plane, separated by
-														// step
-			final double step, // step is in the same units as the _spacing,
-								// etc. variables.
-			final double ox, /* These are scaled now */
-			final double oy, final double oz, final double nx, final double ny, final double nz,
-			final double[] x_basis_vector, /*
-											 * The basis vectors are returned
-											 * here
-											 */
-			final double[] y_basis_vector, /* they *are* scaled by _spacing */
-			final ImagePlus image) {
+		final double[] optimized_x;
+		final double[] optimized_y;
+		final double[] optimized_z;
 
-		final float[] result = new float[side * side];
+		final double[] scores;
+		final double[] moved;
 
-		final double epsilon = 0.000001;
+		final int[] xs_in_image;
+		final int[] ys_in_image;
+		final int[] zs_in_image;
 
-		/*
-		 * To find an arbitrary vector in the normal plane, do the cross product
-		 * with (0,0,1), unless the normal is parallel to that, in which case we
-		 * cross it with (0,1,0) instead...
-		 */
+		/* Only kept if they're going to be displayed: */
+		final float[][] normalPlanes;
 
-		double ax, ay, az;
+		private volatile boolean failed;
+		private final AtomicInteger pointsDone = new AtomicInteger();
 
-		if (Math.abs(nx) < epsilon && Math.abs(ny) < epsilon) {
-			// Cross with (0,1,0):
-			ax = nz;
-			ay = 0;
-			az = -nx;
-		} else {
-			// Cross with (0,0,1):
-			ax = -ny;
-			ay = nx;
-			az = 0;
+		CircleFits(final int side, final ImagePlus image, final boolean keepNormalPlanes, final int progressIndex,
+				final MultiTaskProgress progress, final ForkJoinPool pool, final AtomicBoolean cancelled) {
+			this.side = side;
+			this.image = image;
+			this.progressIndex = progressIndex;
+			this.progress = progress;
+			this.pool = pool;
+			this.cancelled = cancelled;
+			width = image.getWidth();
+			height = image.getHeight();
+			depth = image.getStackSize();
+			scaleInNormalPlane = getMinimumSeparation();
+			sampler = new NormalPlaneSampler(image, x_spacing, y_spacing, z_spacing);
+			final int totalPoints = size();
+			centre_x_positionsUnscaled = new double[totalPoints];
+			centre_y_positionsUnscaled = new double[totalPoints];
+			rs = new double[totalPoints];
+			rsUnscaled = new double[totalPoints];
+			ts_x = new double[totalPoints];
+			ts_y = new double[totalPoints];
+			ts_z = new double[totalPoints];
+			optimized_x = new double[totalPoints];
+			optimized_y = new double[totalPoints];
+			optimized_z = new double[totalPoints];
+			scores = new double[totalPoints];
+			moved = new double[totalPoints];
+			xs_in_image = new int[totalPoints];
+			ys_in_image = new int[totalPoints];
+			zs_in_image = new int[totalPoints];
+			normalPlanes = keepNormalPlanes ? new float[totalPoints][] : null;
 		}
 
 		/*
-		 * Now to find the other vector in that plane, do the cross product of
-		 * (ax,ay,az) with (nx,ny,nz)
+		 * Returns false if the optimization failed for any point, or the
+		 * fitting was cancelled:
 		 */
 
-		double bx = ay * nz - az * ny;
-		double by = az * nx - ax * nz;
-		double bz = ax * ny - ay * nx;
-
-		/* Normalize a and b */
-
-		final double a_size = Math.sqrt(ax * ax + ay * ay + az * az);
-		ax = ax / a_size;
-		ay = ay / a_size;
-		az = az / a_size;
-
-		final double b_size = Math.sqrt(bx * bx + by * by + bz * bz);
-		bx = bx / b_size;
-		by = by / b_size;
-		bz = bz / b_size;
-
-		/* Scale them with spacing... */
-
-		final double ax_s = ax * step;
-		final double ay_s = ay * step;
-		final double az_s = az * step;
-
-		final double bx_s = bx * step;
-		final double by_s = by * step;
-		final double bz_s = bz * step;
-
-		if (verbose) {
-			SNT.log("a (in normal plane) is " + ax + "," + ay + "," + az);
-			SNT.log("b (in normal plane) is " + bx + "," + by + "," + bz);
-		}
-
-		if (true) {
-
-			// a and b must be perpendicular:
-			final double a_dot_b = ax * bx + ay * by + az * bz;
-
-			// ... and each must be perpendicular to the normal
-			final double a_dot_n = ax * nx + ay * ny + az * nz;
-			final double b_dot_n = bx * nx + by * ny + bz * nz;
-
-			if (verbose) {
-				SNT.log("a_dot_b: " + a_dot_b);
-				SNT.log("a_dot_n: " + a_dot_n);
-				SNT.log("b_dot_n: " + b_dot_n);
-			}
-
+		boolean fitAllPoints() {
+			/*
+			 * PathFitter calls this from a task that's already running in
+			 * the same pool; submitting to the pool from there could make it
+			 * start extra threads to make up for the blocked worker, so then
+			 * the points are just forked from this one. From anywhere else,
+			 * including another pool, the work goes to the pool it was given.
+			 */
+			if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool)
+				new FitPoints(0, size()).invoke();
+			else
+				pool.invoke(new FitPoints(0, size()));
+			return !failed && !isCancelled();
 		}
 
-		final int width = image.getWidth();
-		final int height = image.getHeight();
-		final int depth = image.getStackSize();
-		final float[][] v = new float[depth][];
-		final ImageStack s = image.getStack();
-		final int imageType = image.getType();
-		final int arraySize = width * height;
-		if (imageType == ImagePlus.GRAY8 || imageType == ImagePlus.COLOR_256) {
-			for (int z = 0; z < depth; ++z) {
-				final byte[] bytePixels = (byte[]) s.getPixels(z + 1);
-				final float[] fa = new float[arraySize];
-				for (int i = 0; i < arraySize; ++i)
-					fa[i] = bytePixels[i] & 0xFF;
-				v[z] = fa;
-			}
-		} else if (imageType == ImagePlus.GRAY16) {
-			for (int z = 0; z < depth; ++z) {
-				final short[] shortPixels = (short[]) s.getPixels(z + 1);
-				final float[] fa = new float[arraySize];
-				for (int i = 0; i < arraySize; ++i)
-					fa[i] = shortPixels[i];
-				v[z] = fa;
-			}
-		} else if (imageType == ImagePlus.GRAY32) {
-			for (int z = 0; z < depth; ++z) {
-				v[z] = (float[]) s.getPixels(z + 1);
-			}
+		private boolean isCancelled() {
+			return cancelled != null && cancelled.get();
 		}
 
-		for (int grid_i = 0; grid_i < side; ++grid_i) {
-			for (int grid_j = 0; grid_j < side; ++grid_j) {
-
-				final double midside_grid = ((side - 1) / 2.0f);
-
-				final double gi = midside_grid - grid_i;
-				final double gj = midside_grid - grid_j;
-
-				final double vx = ox + gi * ax_s + gj * bx_s;
-				final double vy = oy + gi * ay_s + gj * by_s;
-				final double vz = oz + gi * az_s + gj * bz_s;
+		private class FitPoints extends RecursiveAction {
 
-				// So now denormalize to pixel co-ordinates:
+			private static final long serialVersionUID = 1L;
 
-				final double image_x = vx / x_spacing;
-				final double image_y = vy / y_spacing;
-				final double image_z = vz / z_spacing;
+			private final int from;
+			private final int to;
 
-				/*
-				 * And do a trilinear interpolation to find the value there:
-				 */
-
-				final double x_d = image_x - Math.floor(image_x);
-				final double y_d = image_y - Math.floor(image_y);
-				final double z_d = image_z - Math.floor(image_z);
-
-				final int x_f = (int) Math.floor(image_x);
-				final int x_c = (int) Math.ceil(image_x);
-				final int y_f = (int) Math.floor(image_y);
-				final int y_c = (int) Math.ceil(image_y);
-				final int z_f = (int) Math.floor(image_z);
-				final int z_c = (int) Math.ceil(image_z);
+			FitPoints(final int from, final int to) {
+				this.from = from;
+				this.to = to;
+			}
 
+			@Override
+			protected void compute() {
+				if (to - from > POINTS_PER_TASK) {
+					final int middle = (from + to) >>> 1;
+					invokeAll(new FitPoints(from, middle), new FitPoints(middle, to));
+					return;
+				}
+				if (failed || isCancelled())
+					return;
 				/*
-				 * Check that these values aren't poking off the edge of the
-				 * screen - if so then make them zero.
+				 * Sample the normal planes for all of this task's points
+				 * together, then fit a circle in each:
 				 */
-
-				double fff;
-				double cff;
-				double fcf;
-				double ccf;
-
-				double ffc;
-				double cfc;
-				double fcc;
-				double ccc;
-
-				if ((x_f < 0) || (x_c < 0) || (y_f < 0) || (y_c < 0) || (z_f < 0) || (z_c < 0) || (x_f >= width)
-						|| (x_c >= width) || (y_f >= height) || (y_c >= height) || (z_f >= depth) || (z_c >= depth)) {
-
-					fff = 0;
-					cff = 0;
-					fcf = 0;
-					ccf = 0;
-					ffc = 0;
-					cfc = 0;
-					fcc = 0;
-					ccc = 0;
-
-				} else {
-
-					fff = v[z_f][width * y_f + x_f];
-					cff = v[z_c][width * y_f + x_f];
-
-					fcf = v[z_f][width * y_c + x_f];
-					ccf = v[z_c][width * y_c + x_f];
-
-					ffc = v[z_f][width * y_f + x_c];
-					cfc = v[z_c][width * y_f + x_c];
-
-					fcc = v[z_f][width * y_c + x_c];
-					ccc = v[z_c][width * y_c + x_c];
-
+				final int count = to - from;
+				final double[] centres = new double[3 * count];
+				final double[] tangents = new double[3 * count];
+				final double[] tangent = new double[3];
+				for (int k = 0; k < count; ++k) {
+					getTangent(from + k, TANGENT_POINTS_EITHER_SIDE, tangent);
+					System.arraycopy(tangent, 0, tangents, 3 * k, 3);
+					centres[3 * k] = precise_x_positions[from + k];
+					centres[3 * k + 1] = precise_y_positions[from + k];
+					centres[3 * k + 2] = precise_z_positions[from + k];
 				}
-
-				// Now we should be OK to do the interpolation for real:
-
-				final double i1 = (1 - z_d) * (fff) + (cff) * z_d;
-				final double i2 = (1 - z_d) * (fcf) + (ccf) * z_d;
-
-				final double j1 = (1 - z_d) * (ffc) + (cfc) * z_d;
-				final double j2 = (1 - z_d) * (fcc) + (ccc) * z_d;
-
-				final double w1 = i1 * (1 - y_d) + i2 * y_d;
-				final double w2 = j1 * (1 - y_d) + j2 * y_d;
-
-				final double value_f = w1 * (1 - x_d) + w2 * x_d;
-
-				result[grid_j * side + grid_i] = (float) value_f;
+				final double[] x_bases_in_plane = new double[3 * count];
+				final double[] y_bases_in_plane = new double[3 * count];
+				final float[] planes = new float[count * side * side];
+				sampler.samplePlanes(count, side, scaleInNormalPlane, centres, tangents, x_bases_in_plane,
+						y_bases_in_plane, planes);
+				final double[] startValues = new double[3];
+				int fitted = 0;
+				for (int i = from; i < to && !failed && !isCancelled(); ++i) {
+					if (!fitPoint(i, 3 * (i - from), tangents, x_bases_in_plane, y_bases_in_plane, planes,
+							(i - from) * side * side, startValues)) {
+						failed = true;
+						return;
+					}
+					++fitted;
+				}
+				/* Progress is only reported once per task, not for every point: */
+				if (progress != null)
+					progress.updateProgress(((double) pointsDone.addAndGet(fitted)) / size(), progressIndex);
 			}
 		}
 
-		x_basis_vector[0] = ax_s;
-		x_basis_vector[1] = ay_s;
-		x_basis_vector[2] = az_s;
-
-		y_basis_vector[0] = bx_s;
-		y_basis_vector[1] = by_s;
-		y_basis_vector[2] = bz_s;
-
-		return result;
-	}
-
-	public Path fitCircles(final int side, final ImagePlus image, final boolean display) {
-		return fitCircles(side, image, display, null, -1, null);
-	}
-
-	public Path fitCircles(final int side, final ImagePlus image, final boolean display,
-			final SimpleNeuriteTracer plugin, final int progressIndex, final MultiTaskProgress progress) {
-
-		final Path fitted = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
-
-		// if (verbose) SNT.log("Generating normal planes stack.");
-
-		final int totalPoints = size();
-
-		if (verbose)
-			SNT.log("There are: " + totalPoints + " in the stack.");
-
-		final int pointsEitherSide = 4;
-
-		if (verbose)
-			SNT.log("Using spacing: " + x_spacing + "," + y_spacing + "," + z_spacing);
-
-		final int width = image.getWidth();
-		final int height = image.getHeight();
-		final int depth = image.getStackSize();
-
-		final ImageStack stack = new ImageStack(side, side);
-
-		// We assume that the first and the last in the stack are fine;
-
-		final double[] centre_x_positionsUnscaled = new double[totalPoints];
-		final double[] centre_y_positionsUnscaled = new double[totalPoints];
-		final double[] rs = new double[totalPoints];
-		final double[] rsUnscaled = new double[totalPoints];
-
-		final double[] ts_x = new double[totalPoints];
-		final double[] ts_y = new double[totalPoints];
-		final double[] ts_z = new double[totalPoints];
-
-		final double[] optimized_x = new double[totalPoints];
-		final double[] optimized_y = new double[totalPoints];
-		final double[] optimized_z = new double[totalPoints];
-
-		final double[] scores = new double[totalPoints];
-
-		final double[] moved = new double[totalPoints];
-
-		final boolean[] valid = new boolean[totalPoints];
-
-		final int[] xs_in_image = new int[totalPoints];
-		final int[] ys_in_image = new int[totalPoints];
-		final int[] zs_in_image = new int[totalPoints];
-
-		final double scaleInNormalPlane = getMinimumSeparation();
-
-		final double[] tangent = new double[3];
-
-		if (progress != null)
-			progress.updateProgress(progressIndex, 0);
-
-		for (int i = 0; i < totalPoints; ++i) {
+		/*
+		 * The tangent and the basis vectors of the normal plane for point i
+		 * start at vectorOffset in those arrays, and the plane's samples at
+		 * planeOffset in planes:
+		 */
 
-			getTangent(i, pointsEitherSide, tangent);
+		private boolean fitPoint(final int i, final int vectorOffset, final double[] tangents,
+				final double[] x_bases_in_plane, final double[] y_bases_in_plane, final float[] planes,
+				final int planeOffset, final double[] startValues) {
 
 			final double x_world = precise_x_positions[i];
 			final double y_world = precise_y_positions[i];
 			final double z_world = precise_z_positions[i];
 
-			final double[] x_basis_in_plane = new double[3];
-			final double[] y_basis_in_plane = new double[3];
-
-			final float[] normalPlane = squareNormalToVector(side, scaleInNormalPlane, // This
-																						// is
-																						// in
-																						// the
-																						// same
-																						// units
-																						// as
-																						// the
-																						// _spacing,
-																						// etc.
-																						// variables.
-					x_world, // These are scaled now
-					y_world, z_world, tangent[0], tangent[1], tangent[2], x_basis_in_plane, y_basis_in_plane, image);
-
 			/*
 			 * Now at this stage, try to optimize a circle in there...
 			 */
 
 			// n.b. thes aren't normalized
-			ts_x[i] = tangent[0];
-			ts_y[i] = tangent[1];
-			ts_z[i] = tangent[2];
+			ts_x[i] = tangents[vectorOffset];
+			ts_y[i] = tangents[vectorOffset + 1];
+			ts_z[i] = tangents[vectorOffset + 2];
 
 			final ConjugateDirectionSearch optimizer = new ConjugateDirectionSearch();
 			// optimizer.prin = 2; // debugging information on
 			optimizer.step = side / 4.0;
 
-			final double[] startValues = new double[3];
 			startValues[0] = side / 2.0;
 			startValues[1] = side / 2.0;
 			startValues[2] = 3;
@@ -1460,18 +1359,18 @@ public class Path implements Comparable<Path> {
 			float minValueInSquare = Float.MAX_VALUE;
 			float maxValueInSquare = Float.MIN_VALUE;
 			for (int j = 0; j < (side * side); ++j) {
-				final float value = normalPlane[j];
+				final float value = planes[planeOffset + j];
 				maxValueInSquare = Math.max(value, maxValueInSquare);
 				minValueInSquare = Math.min(value, minValueInSquare);
 			}
 
-			final CircleAttempt attempt = new CircleAttempt(startValues, normalPlane, minValueInSquare,
+			final CircleAttempt attempt = new CircleAttempt(startValues, planes, planeOffset, minValueInSquare,
 					maxValueInSquare, side);
 
 			try {
 				optimizer.optimize(attempt, startValues, 2, 2);
 			} catch (final ConjugateDirectionSearch.OptimizationError e) {
-				return null;
+				return false;
 			}
 
 			if (verbose)
@@ -1508,12 +1407,12 @@ public class Path implements Comparable<Path> {
 			// FIXME: I really think these should be +=, but it seems clear from
 			// the results that I've got a sign wrong somewhere :(
 
-			centre_real_x -= x_basis_in_plane[0] * x_from_centre_in_plane
-					+ y_basis_in_plane[0] * y_from_centre_in_plane;
-			centre_real_y -= x_basis_in_plane[1] * x_from_centre_in_plane
-					+ y_basis_in_plane[1] * y_from_centre_in_plane;
-			centre_real_z -= x_basis_in_plane[2] * x_from_centre_in_plane
-					+ y_basis_in_plane[2] * y_from_centre_in_plane;
+			centre_real_x -= x_bases_in_plane[vectorOffset] * x_from_centre_in_plane
+					+ y_bases_in_plane[vectorOffset] * y_from_centre_in_plane;
+			centre_real_y -= x_bases_in_plane[vectorOffset + 1] * x_from_centre_in_plane
+					+ y_bases_in_plane[vectorOffset + 1] * y_from_centre_in_plane;
+			centre_real_z -= x_bases_in_plane[vectorOffset + 2] * x_from_centre_in_plane
+					+ y_bases_in_plane[vectorOffset + 2] * y_from_centre_in_plane;
 
 			if (verbose)
 				SNT.log("adjusted original centre in real co-ordinates: " + centre_real_x + "," + centre_real_y + ","
@@ -1550,16 +1449,166 @@ public class Path implements Comparable<Path> {
 			ys_in_image[i] = y_in_image;
 			zs_in_image[i] = z_in_image;
 
-			if (verbose)
-				SNT.log("Adding a real slice.");
+			if (normalPlanes != null)
+				normalPlanes[i] = Arrays.copyOfRange(planes, planeOffset, planeOffset + side * side);
 
-			final FloatProcessor bp = new FloatProcessor(side, side);
-			bp.setPixels(normalPlane);
-			stack.addSlice(null, bp);
+			return true;
+		}
+	}
 
-			if (progress != null)
-				progress.updateProgress(((double) i + 1) / totalPoints, progressIndex);
+	public boolean isFittedVersionOfAnotherPath() {
+		return fittedVersionOf != null;
+	}
+
+	Path fitted; // If this path has a fitted version, this is it.
+	boolean useFitted = false; // Use the fitted version in preference to this
+								// path
+	Path fittedVersionOf; // If this path is a fitted version of another one,
+							// this is the original
+
+	public void setFitted(final Path p) {
+		if (fitted != null) {
+			throw new RuntimeException("BUG: Trying to set a fitted path when there already is one...");
 		}
+		fitted = p;
+		p.fittedVersionOf = this;
+	}
+
+	public void setUseFitted(final boolean useFitted) {
+		setUseFitted(useFitted, null);
+	}
+
+	public void setUseFitted(final boolean useFitted, final SimpleNeuriteTracer plugin) {
+
+		if (useFitted && fitted == null)
+			throw new RuntimeException("BUG: setUseFitted(true) was called, but the 'fitted' member was null");
+
+		this.useFitted = useFitted;
+	}
+
+	public boolean getUseFitted() {
+		return useFitted;
+	}
+
+	public Path getFitted() {
+		return fitted;
+	}
+
+	public void setGuessedTangents(final int pointsEitherSide) {
+		if (tangents_x == null || tangents_y == null || tangents_z == null)
+			throw new RuntimeException("BUG: setGuessedTangents called with one of the tangent arrays null");
+		final double[] tangent = new double[3];
+		for (int i = 0; i < points; ++i) {
+			getTangent(i, pointsEitherSide, tangent);
+			tangents_x[i] = tangent[0];
+			tangents_y[i] = tangent[1];
+			tangents_z[i] = tangent[2];
+		}
+	}
+
+	public void getTangent(final int i, final int pointsEitherSide, final double[] result) {
+		int min_index = i - pointsEitherSide;
+		if (min_index < 0)
+			min_index = 0;
+
+		int max_index = i + pointsEitherSide;
+		if (max_index >= points)
+			max_index = points - 1;
+
+		result[0] = precise_x_positions[max_index] - precise_x_positions[min_index];
+		result[1] = precise_y_positions[max_index] - precise_y_positions[min_index];
+		result[2] = precise_z_positions[max_index] - precise_z_positions[min_index];
+	}
+
+	public float[] squareNormalToVector(final int side, // The number of samples
+														// in x and y in the
+														// plane, separated by
+														// step
+			final double step, // step is in the same units as the _spacing,
+								// etc. variables.
+			final double ox, /* These are scaled now */
+			final double oy, final double oz, final double nx, final double ny, final double nz,
+			final double[] x_basis_vector, /*
+											 * The basis vectors are returned
+											 * here
+											 */
+			final double[] y_basis_vector, /* they *are* scaled by _spacing */
+			final ImagePlus image) {
+
+		/*
+		 * Making a sampler is cheap, but fitting a whole path should share
+		 * one, as CircleFits does.
+		 */
+		final float[] result = new float[side * side];
+		new NormalPlaneSampler(image, x_spacing, y_spacing, z_spacing).samplePlane(side, step, ox, oy, oz, nx, ny,
+				nz, x_basis_vector, y_basis_vector, result, 0);
+		return result;
+	}
+
+	public Path fitCircles(final int side, final ImagePlus image, final boolean display) {
+		return fitCircles(side, image, display, null, -1, null);
+	}
+
+	public Path fitCircles(final int side, final ImagePlus image, final boolean display,
+			final SimpleNeuriteTracer plugin, final int progressIndex, final MultiTaskProgress progress) {
+		return fitCircles(side, image, display, plugin, progressIndex, progress, ForkJoinPool.commonPool(), null);
+	}
+
+	/*
+	 * Fit the circles with the tasks for this path's points in that pool.
+	 * This returns null if the fitting failed, or if cancelled was set before
+	 * it finished.
+	 */
+
+	public Path fitCircles(final int side, final ImagePlus image, final boolean display,
+			final SimpleNeuriteTracer plugin, final int progressIndex, final MultiTaskProgress progress,
+			final ForkJoinPool pool, final AtomicBoolean cancelled) {
+
+		final Path fitted = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
+
+		// if (verbose) SNT.log("Generating normal planes stack.");
+
+		final int totalPoints = size();
+
+		if (verbose)
+			SNT.log("There are: " + totalPoints + " in the stack.");
+
+		if (verbose)
+			SNT.log("Using spacing: " + x_spacing + "," + y_spacing + "," + z_spacing);
+
+		// We assume that the first and the last in the stack are fine;
+
+		if (progress != null)
+			progress.updateProgress(0, progressIndex);
+
+		final CircleFits fits = new CircleFits(side, image, display, progressIndex, progress, pool, cancelled);
+		if (!fits.fitAllPoints())
+			return null;
+
+		final double[] centre_x_positionsUnscaled = fits.centre_x_positionsUnscaled;
+		final double[] centre_y_positionsUnscaled = fits.centre_y_positionsUnscaled;
+		final double[] rs = fits.rs;
+		final double[] rsUnscaled = fits.rsUnscaled;
+
+		final double[] ts_x = fits.ts_x;
+		final double[] ts_y = fits.ts_y;
+		final double[] ts_z = fits.ts_z;
+
+		final double[] optimized_x = fits.optimized_x;
+		final double[] optimized_y = fits.optimized_y;
+		final double[] optimized_z = fits.optimized_z;
+
+		final double[] scores = fits.scores;
+
+		final double[] moved = fits.moved;
+
+		final boolean[] valid = new boolean[totalPoints];
+
+		final int[] xs_in_image = fits.xs_in_image;
+		final int[] ys_in_image = fits.ys_in_image;
+		final int[] zs_in_image = fits.zs_in_image;
+
+		final double scaleInNormalPlane = fits.scaleInNormalPlane;
 
 		/*
 		 * Now at each point along the path we calculate the mode of the
@@ -1600,19 +1649,16 @@ public class Path implements Comparable<Path> {
 		final double[] angles = new double[totalPoints];
 		// Set the end points to 180 degrees:
 		angles[0] = angles[totalPoints - 1] = Math.PI;
+		// If there's no next valid one then just use the last:
+		final int[] nextValidAfter = new int[totalPoints];
+		nextValidAfter[totalPoints - 1] = totalPoints - 1;
+		for (int i = totalPoints - 2; i >= 0; --i)
+			nextValidAfter[i] = valid[i + 1] ? i + 1 : nextValidAfter[i + 1];
+		// If there's no previously valid one then just use the first. (This
+		// is kept up to date as points are found to be invalid below.)
+		int previousValid = 0;
 		for (int i = 1; i < totalPoints - 1; ++i) {
-			// If there's no previously valid one then
-			// just use the first:
-			int previousValid = 0;
-			for (int j = 0; j < i; ++j)
-				if (valid[j])
-					previousValid = j;
-			// If there's no next valid one then just use
-			// the first:
-			int nextValid = totalPoints - 1;
-			for (int j = totalPoints - 1; j > i; --j)
-				if (valid[j])
-					nextValid = j;
+			final int nextValid = nextValidAfter[i];
 			final double adiffx = optimized_x[previousValid] - optimized_x[i];
 			final double adiffy = optimized_y[previousValid] - optimized_y[i];
 			final double adiffz = optimized_z[previousValid] - optimized_z[i];
@@ -1625,64 +1671,11 @@ public class Path implements Comparable<Path> {
 			angles[i] = Math.acos(adotb / (asize * bsize));
 			if (angles[i] < (Math.PI / 2))
 				valid[i] = false;
+			if (valid[i])
+				previousValid = i;
 		}
 
-		/*
-		 * Repeatedly build an array indicating how many other valid circles
-		 * each one overlaps with, and remove the worst culprits on each run
-		 * until they're all gone... This is horrendously inefficient (O(n^3) in
-		 * the worst case) but I'm more sure of its correctness than other
-		 * things I've tried, and there should be few overlapping circles.
-		 */
-		final int[] overlapsWith = new int[totalPoints];
-		boolean someStillOverlap = true;
-		while (someStillOverlap) {
-			someStillOverlap = false;
-			int maximumNumberOfOverlaps = -1;
-			for (int i = 0; i < totalPoints; ++i) {
-				overlapsWith[i] = 0;
-				if (!valid[i])
-					continue;
-				for (int j = 0; j < totalPoints; ++j) {
-					if (!valid[j])
-						continue;
-					if (i == j)
-						continue;
-					if (circlesOverlap(ts_x[i], ts_y[i], ts_z[i], optimized_x[i], optimized_y[i], optimized_z[i], rs[i],
-							ts_x[j], ts_y[j], ts_z[j], optimized_x[j], optimized_y[j], optimized_z[j], rs[j])) {
-						++overlapsWith[i];
-						someStillOverlap = true;
-					}
-				}
-				if (overlapsWith[i] > maximumNumberOfOverlaps)
-					maximumNumberOfOverlaps = overlapsWith[i];
-			}
-			if (maximumNumberOfOverlaps <= 0) {
-				break;
-			}
-			// Now we've built the array, go through and
-			// remove the worst offenders:
-			for (int i = 0; i < totalPoints; ++i) {
-				if (!valid[i])
-					continue;
-				int n = totalPoints;
-				for (int j = totalPoints - 1; j > i; --j)
-					if (valid[j])
-						n = j;
-				if (overlapsWith[i] == maximumNumberOfOverlaps) {
-					// If the next valid one has
-					// the same number, and that
-					// has a larger radius, remove
-					// that one instead...
-					if (n < totalPoints && overlapsWith[n] == maximumNumberOfOverlaps && rs[n] > rs[i]) {
-						valid[n] = false;
-					} else {
-						valid[i] = false;
-					}
-					break;
-				}
-			}
-		}
+		removeOverlappingCircles(valid, ts_x, ts_y, ts_z, optimized_x, optimized_y, optimized_z, rs);
 
 		int lastValidIndex = 0;
 
@@ -1760,6 +1753,10 @@ public class Path implements Comparable<Path> {
 
 		if (display) {
 
+			final ImageStack stack = new ImageStack(side, side);
+			for (int i = 0; i < totalPoints; ++i)
+				stack.addSlice(null, new FloatProcessor(side, side, fits.normalPlanes[i], null));
+
 			final ImagePlus imp = new ImagePlus("normal stack", stack);
 
 			final NormalPlaneCanvas normalCanvas = new NormalPlaneCanvas(imp, plugin, centre_x_positionsUnscaled,
@@ -1873,9 +1870,208 @@ public class Path implements Comparable<Path> {
 		return typeName;
 	}
 
+	/*
+	 * Mark circles as invalid until none of the valid ones overlap: each time,
+	 * the first circle that overlaps the most others is removed (or the next
+	 * valid one, if that overlaps as many and is larger). Only circles that
+	 * could overlap, i.e. whose centres are no further apart than the sum of
+	 * their radii, are compared, by putting the centres into a grid of cells
+	 * at least that size; the number of overlaps for each circle is then kept
+	 * up to date as circles are removed, rather than being counted again.
+	 */
+
+	void removeOverlappingCircles(final boolean[] valid, final double[] ts_x, final double[] ts_y,
+			final double[] ts_z, final double[] optimized_x, final double[] optimized_y, final double[] optimized_z,
+			final double[] rs) {
+
+		final int totalPoints = valid.length;
+
+		double maximumRadius = 0;
+		double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE, min_z = Double.MAX_VALUE;
+		double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE, max_z = -Double.MAX_VALUE;
+		for (int i = 0; i < totalPoints; ++i) {
+			if (!valid[i])
+				continue;
+			maximumRadius = Math.max(maximumRadius, Math.abs(rs[i]));
+			min_x = Math.min(min_x, optimized_x[i]);
+			min_y = Math.min(min_y, optimized_y[i]);
+			min_z = Math.min(min_z, optimized_z[i]);
+			max_x = Math.max(max_x, optimized_x[i]);
+			max_y = Math.max(max_y, optimized_y[i]);
+			max_z = Math.max(max_z, optimized_z[i]);
+		}
+
+		/*
+		 * Any cell size that's at least the largest possible distance between
+		 * overlapping centres works; it's made larger if necessary so that
+		 * the cell co-ordinates fit in 20 bits each.
+		 */
+		final int cellBits = 20;
+		final double extent = Math.max(max_x - min_x, Math.max(max_y - min_y, max_z - min_z));
+		double cellSize = Math.max(2 * maximumRadius, extent / (1 << cellBits));
+		if (!(cellSize > 0))
+			cellSize = 1;
+
+		final HashMap<Long, int[]> cells = new HashMap<>();
+		final long[] cellOf = new long[totalPoints];
+		for (int i = 0; i < totalPoints; ++i) {
+			if (!valid[i])
+				continue;
+			final long cell = cellKey((long) ((optimized_x[i] - min_x) / cellSize),
+					(long) ((optimized_y[i] - min_y) / cellSize), (long) ((optimized_z[i] - min_z) / cellSize));
+			cellOf[i] = cell;
+			int[] members = cells.get(cell);
+			if (members == null) {
+				members = new int[] { 0, 0, 0, 0, 0 };
+				cells.put(cell, members);
+			} else if (members[0] + 1 == members.length) {
+				members = Arrays.copyOf(members, members.length * 2);
+				cells.put(cell, members);
+			}
+			members[++members[0]] = i;
+		}
+
+		/*
+		 * overlapsWith[i] is the number of valid circles that circle i
+		 * overlaps, and countedBy[j] lists the circles whose count includes
+		 * circle j. (circlesOverlap() is tested both ways round, as each count
+		 * used to be worked out with the circle itself first.)
+		 */
+		final int[] overlapsWith = new int[totalPoints];
+		final int[][] countedBy = new int[totalPoints][];
+		final long mask = (1L << (cellBits + 1)) - 1;
+		for (int i = 0; i < totalPoints; ++i) {
+			if (!valid[i])
+				continue;
+			final long cell = cellOf[i];
+			final long cx = cell >>> (2 * (cellBits + 1)), cy = (cell >>> (cellBits + 1)) & mask, cz = cell & mask;
+			for (long dx = -1; dx <= 1; ++dx)
+				for (long dy = -1; dy <= 1; ++dy)
+					for (long dz = -1; dz <= 1; ++dz) {
+						if (cx + dx < 0 || cy + dy < 0 || cz + dz < 0)
+							continue;
+						final int[] members = cells.get(cellKey(cx + dx, cy + dy, cz + dz));
+						if (members == null)
+							continue;
+						for (int m = 1; m <= members[0]; ++m) {
+							final int j = members[m];
+							if (j <= i)
+								continue;
+							if (circlesOverlap(ts_x[i], ts_y[i], ts_z[i], optimized_x[i], optimized_y[i],
+									optimized_z[i], rs[i], ts_x[j], ts_y[j], ts_z[j], optimized_x[j], optimized_y[j],
+									optimized_z[j], rs[j])) {
+								++overlapsWith[i];
+								countedBy[j] = appendIndex(countedBy[j], i);
+							}
+							if (circlesOverlap(ts_x[j], ts_y[j], ts_z[j], optimized_x[j], optimized_y[j],
+									optimized_z[j], rs[j], ts_x[i], ts_y[i], ts_z[i], optimized_x[i], optimized_y[i],
+									optimized_z[i], rs[i])) {
+								++overlapsWith[j];
+								countedBy[i] = appendIndex(countedBy[i], j);
+							}
+						}
+					}
+		}
+
+		/*
+		 * The circles that overlap any others, ordered by the number of
+		 * overlaps (largest first) and then by index:
+		 */
+		final TreeSet<Long> worstFirst = new TreeSet<>();
+		for (int i = 0; i < totalPoints; ++i)
+			if (valid[i] && overlapsWith[i] > 0)
+				worstFirst.add(overlapKey(overlapsWith[i], i));
+
+		/* The valid circles as a linked list, to find the next valid one: */
+		final int[] nextValid = new int[totalPoints];
+		final int[] previousValid = new int[totalPoints];
+		int last = -1;
+		for (int i = 0; i < totalPoints; ++i) {
+			if (!valid[i])
+				continue;
+			if (last >= 0)
+				nextValid[last] = i;
+			previousValid[i] = last;
+			last = i;
+		}
+		if (last >= 0)
+			nextValid[last] = totalPoints;
+
+		while (!worstFirst.isEmpty()) {
+			final int i = (int) worstFirst.first().longValue();
+			final int maximumNumberOfOverlaps = overlapsWith[i];
+			final int n = nextValid[i];
+			// If the next valid one has the same number, and that has a
+			// larger radius, remove that one instead...
+			final int remove = (n < totalPoints && overlapsWith[n] == maximumNumberOfOverlaps && rs[n] > rs[i]) ? n
+					: i;
+			valid[remove] = false;
+			if (overlapsWith[remove] > 0)
+				worstFirst.remove(overlapKey(overlapsWith[remove], remove));
+			final int before = previousValid[remove];
+			final int after = nextValid[remove];
+			if (before >= 0)
+				nextValid[before] = after;
+			if (after < totalPoints)
+				previousValid[after] = before;
+			if (countedBy[remove] == null)
+				continue;
+			for (int k = 1; k <= countedBy[remove][0]; ++k) {
+				final int c = countedBy[remove][k];
+				if (!valid[c])
+					continue;
+				worstFirst.remove(overlapKey(overlapsWith[c], c));
+				if (--overlapsWith[c] > 0)
+					worstFirst.add(overlapKey(overlapsWith[c], c));
+			}
+		}
+	}
+
+	private static long cellKey(final long cx, final long cy, final long cz) {
+		return (cx << 42) | (cy << 21) | cz;
+	}
+
+	private static long overlapKey(final int overlaps, final int index) {
+		return ((long) (Integer.MAX_VALUE - overlaps) << 32) | index;
+	}
+
+	/* These arrays hold their length in the first element: */
+
+	private static int[] appendIndex(int[] indices, final int index) {
+		if (indices == null)
+			indices = new int[] { 0, 0, 0, 0, 0 };
+		else if (indices[0] + 1 == indices.length)
+			indices = Arrays.copyOf(indices, indices.length * 2);
+		indices[++indices[0]] = index;
+		return indices;
+	}
+
+	/*
+	 * Whether two circles, each given by its normal, centre and radius,
+	 * overlap. Circles whose centres are further apart than the sum of their
+	 * radii never do. Before that check was added, circles in the same plane,
+	 * or in planes so nearly parallel that the line where they meet couldn't
+	 * be found, were said to overlap however far apart they were, so
+	 * fitCircles() now discards fewer circles than it used to, and the fitted
+	 * radii and positions of a path can differ from those that older versions
+	 * found for it.
+	 */
+
 	public boolean circlesOverlap(final double n1x, final double n1y, final double n1z, final double c1x,
 			final double c1y, final double c1z, final double radius1, final double n2x, final double n2y,
 			final double n2z, final double c2x, final double c2y, final double c2z, final double radius2) {
+		/*
+		 * Circles whose centres are further apart than the sum of their radii
+		 * can't overlap. (Without this, the nearly parallel cases below would
+		 * say that circles overlap however far apart they are, and this lets
+		 * removeOverlappingCircles() only compare circles that are close.)
+		 */
+		final double reach = Math.abs(radius1) + Math.abs(radius2);
+		final double cdx = c2x - c1x;
+		final double cdy = c2y - c1y;
+		final double cdz = c2z - c1z;
+		if (cdx * cdx + cdy * cdy + cdz * cdz > reach * reach)
+			return false;
 		/*
 		 * Roughly following the steps described here:
 		 * http://local.wasp.uwa.edu.au/~pbourke/geometry/planeplane/
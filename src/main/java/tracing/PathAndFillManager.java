@@ -52,6 +52,12 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -786,6 +792,104 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 		resetListeners(null);
 	}
 
+	/*
+	 * Fills out to threshold from each of the groups of paths, running up to
+	 * maximumThreads of the fills at once (or one per processor if that's 0),
+	 * and returns the fills in the same order as the groups. The fills all
+	 * use the slices of the same image and the same cost volume; if
+	 * costVolume is null, one is calculated for them if there's enough
+	 * memory. Each fill stops once it has found everything within the
+	 * threshold (see FillerThread.setThresholdMargin()). A group whose fill
+	 * failed gets null instead. If addFills is true, the fills are also
+	 * added to this manager's list.
+	 */
+
+	public List<Fill> fillPathGroups(final ImagePlus imagePlus, final float stackMin, final float stackMax,
+			final List<Set<Path>> pathGroups, final double threshold, CostVolume costVolume,
+			final int maximumThreads, final boolean addFills) throws InterruptedException {
+
+		if (costVolume == null) {
+			try {
+				costVolume = new CostVolume(imagePlus, stackMin, stackMax, CostVolume.RECIPROCAL);
+			} catch (final OutOfMemoryError oome) {
+				SNT.log("Not enough memory for the cost volume, so the fills will work out costs as they go");
+			}
+		}
+
+		/*
+		 * Each filler is only created when its task starts, and isn't kept
+		 * once its fill has been found, so only the search state of the fills
+		 * that are running at the time is in memory. The ones that are running
+		 * are in liveFillers, so they can be stopped if this is interrupted.
+		 */
+		final CostVolume sharedCostVolume = costVolume;
+		final Set<FillerThread> liveFillers = new HashSet<>();
+		final AtomicBoolean stopping = new AtomicBoolean();
+
+		final int threads = (maximumThreads > 0) ? maximumThreads : Runtime.getRuntime().availableProcessors();
+		final ExecutorService es = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, pathGroups.size())));
+		final List<Future<Fill>> futures = new ArrayList<>();
+		try {
+			for (final Set<Path> pathGroup : pathGroups) {
+				futures.add(es.submit(new Callable<Fill>() {
+					@Override
+					public Fill call() {
+						final FillerThread filler = new FillerThread(imagePlus, stackMin, stackMax, false, true,
+								threshold, 0);
+						filler.setUsePrimitiveEngine(true);
+						filler.setCostVolume(sharedCostVolume);
+						filler.setThresholdMargin(1.0);
+						filler.setExitAtLimit(true);
+						filler.setSourcePaths(pathGroup);
+						synchronized (liveFillers) {
+							if (stopping.get())
+								return null;
+							liveFillers.add(filler);
+						}
+						try {
+							filler.run();
+						} finally {
+							synchronized (liveFillers) {
+								liveFillers.remove(filler);
+							}
+						}
+						final int exitReason = filler.getExitReason();
+						if (exitReason != SearchThread.REACHED_LIMIT && exitReason != SearchThread.POINTS_EXHAUSTED) {
+							SNT.log("A fill finished with " + SearchThread.exitReasonStrings[exitReason]);
+							return null;
+						}
+						return filler.getFill();
+					}
+				}));
+			}
+			final List<Fill> result = new ArrayList<>();
+			for (final Future<Fill> future : futures) {
+				try {
+					result.add(future.get());
+				} catch (final ExecutionException e) {
+					SNT.log("A fill failed: " + e.getCause());
+					result.add(null);
+				}
+			}
+			if (addFills) {
+				for (final Fill fill : result)
+					if (fill != null)
+						allFills.add(fill);
+				resetListeners(null);
+			}
+			return result;
+		} catch (final InterruptedException e) {
+			synchronized (liveFillers) {
+				stopping.set(true);
+				for (final FillerThread filler : liveFillers)
+					filler.requestStop();
+			}
+			throw e;
+		} finally {
+			es.shutdown();
+		}
+	}
+
 	public void deleteFills(final int[] indices) {
 
 		Arrays.sort(indices);
@@ -814,12 +918,26 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 		final Fill toReload = allFills.get(index);
 
 		plugin.startFillerThread(
-				FillerThread.fromFill(plugin.getImagePlus(), plugin.stackMin, plugin.stackMax, true, toReload));
+				FillerThread.fromFill(plugin.getImagePlus(), plugin.stackMin, plugin.stackMax, true, toReload,
+						plugin.usePrimitiveSearchEngine));
 
 	}
 
 	// FIXME: should probably use XMLStreamWriter instead of this ad-hoc
 	// approach:
+	/*
+	 * If this is set, the points of fills are written to .traces files in the
+	 * compact binary form described in Fill.writeNodesBinary() rather than as
+	 * a <node> element each. Versions of this plugin from before that was
+	 * added can't read those files.
+	 */
+
+	boolean binaryFills;
+
+	public void setWriteBinaryFills(final boolean binaryFills) {
+		this.binaryFills = binaryFills;
+	}
+
 	synchronized public void writeXML(final String fileName, final boolean compress) throws IOException {
 
 		PrintWriter pw = null;
@@ -838,8 +956,9 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 			pw.println("  <!ELEMENT samplespacing  EMPTY>");
 			pw.println("  <!ELEMENT path           (point+)>");
 			pw.println("  <!ELEMENT point          EMPTY>");
-			pw.println("  <!ELEMENT fill           (node*)>");
+			pw.println("  <!ELEMENT fill           (node*|nodes)>");
 			pw.println("  <!ELEMENT node           EMPTY>");
+			pw.println("  <!ELEMENT nodes          (#PCDATA)>");
 			pw.println("  <!ATTLIST samplespacing  x                 CDATA           #REQUIRED>");
 			pw.println("  <!ATTLIST samplespacing  y                 CDATA           #REQUIRED>");
 			pw.println("  <!ATTLIST samplespacing  z                 CDATA           #REQUIRED>");
@@ -888,6 +1007,8 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 			pw.println("  <!ATTLIST node           previousid        CDATA           #IMPLIED>");
 			pw.println("  <!ATTLIST node           distance          CDATA           #REQUIRED>");
 			pw.println("  <!ATTLIST node           status            (open|closed)   #REQUIRED>");
+			pw.println("  <!ATTLIST nodes          encoding          CDATA           #REQUIRED>");
+			pw.println("  <!ATTLIST nodes          count             CDATA           #REQUIRED>");
 			pw.println("]>");
 			pw.println("");
 
@@ -971,7 +1092,7 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 			// Now output the fills:
 			int fillIndex = 0;
 			for (final Fill f : allFills) {
-				f.writeXML(pw, fillIndex);
+				f.writeXML(pw, fillIndex, binaryFills);
 				++fillIndex;
 			}
 			pw.println("</tracings>");
@@ -994,6 +1115,10 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 	Fill current_fill;
 	Path current_path;
 
+	/* The text of a <nodes> element while it's being read, otherwise null: */
+	StringBuilder current_fill_nodes;
+	int current_fill_nodes_count;
+
 	HashMap<Integer, Integer> startJoins;
 	HashMap<Integer, Integer> startJoinsIndices;
 	HashMap<Integer, PointInImage> startJoinsPoints;
@@ -1376,6 +1501,22 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 				throw new TracesFileFormatException("There was an invalid attribute to <fill>");
 			}
 
+		} else if (qName.equals("nodes")) {
+
+			if (current_fill == null || last_fill_node_id >= 0)
+				throw new TracesFileFormatException("<nodes> must be the only contents of a <fill>");
+
+			final String encoding = attributes.getValue("encoding");
+			if (!Fill.BINARY_NODES_ENCODING.equals(encoding))
+				throw new TracesFileFormatException("Unknown encoding of fill nodes: '" + encoding + "'");
+
+			try {
+				current_fill_nodes_count = Integer.parseInt(attributes.getValue("count"));
+			} catch (final NumberFormatException e) {
+				throw new TracesFileFormatException("There was an invalid count in <nodes>");
+			}
+			current_fill_nodes = new StringBuilder();
+
 		} else if (qName.equals("node")) {
 
 			try {
@@ -1430,6 +1571,12 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 		}
 	}
 
+	@Override
+	public void characters(final char[] ch, final int start, final int length) {
+		if (current_fill_nodes != null)
+			current_fill_nodes.append(ch, start, length);
+	}
+
 	@Override
 	public void endElement(final String uri, final String localName, final String qName)
 			throws TracesFileFormatException {
@@ -1438,6 +1585,16 @@ public class PathAndFillManager extends DefaultHandler implements UniverseListen
 
 			allPaths.add(current_path);
 
+		} else if (qName.equals("nodes")) {
+
+			try {
+				current_fill.readNodesBinary(current_fill_nodes, current_fill_nodes_count);
+			} catch (final IOException e) {
+				throw new TracesFileFormatException("Failed to read the fill's nodes: " + e.getMessage());
+			}
+			last_fill_node_id = current_fill.size() - 1;
+			current_fill_nodes = null;
+
 		} else if (qName.equals("fill")) {
 
 			allFills.add(current_fill);
@@ -25,6 +25,8 @@
 package tracing;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /* This class represents a list of points, and has methods for drawing
  * them onto ThreePanes-style image canvases. */
@@ -37,6 +39,21 @@ public class PathFitter implements Callable<Path> {
 	protected MultiTaskProgress progress;
 	protected boolean showDetailedFittingResults;
 	protected boolean succeeded;
+	protected AtomicBoolean cancelled;
+
+	/*
+	 * All fitting is done in this pool, which is created the first time it's
+	 * needed and then kept: the points of every path being fitted are split
+	 * into chunks in it, so a long path doesn't hold up the others. (Its
+	 * threads are daemon threads, so it doesn't need to be shut down.)
+	 */
+	private static ForkJoinPool fittingPool;
+
+	static synchronized ForkJoinPool fittingPool() {
+		if (fittingPool == null)
+			fittingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		return fittingPool;
+	}
 
 	public boolean getSucceeded() {
 		return succeeded;
@@ -57,10 +74,16 @@ public class PathFitter implements Callable<Path> {
 		this.progress = progress;
 	}
 
+	/* If this flag is set, the fitting stops and call() returns null: */
+
+	public void setCancelledFlag(final AtomicBoolean cancelled) {
+		this.cancelled = cancelled;
+	}
+
 	@Override
 	public Path call() throws Exception {
 		final Path fitted = path.fitCircles(40, plugin.getImagePlus(), showDetailedFittingResults, plugin, fitterIndex,
-				progress);
+				progress, fittingPool(), cancelled);
 		if (fitted == null) {
 			succeeded = false;
 			return null;
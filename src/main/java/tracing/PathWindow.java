@@ -43,9 +43,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.Icon;
 import javax.swing.JButton;
@@ -174,9 +175,20 @@ public class PathWindow extends JFrame implements PathAndFillListener, TreeSelec
 		});
 	}
 
+	/* Set while paths are being fitted, so that the fitting can be cancelled: */
+	private volatile AtomicBoolean fittingCancelled;
+
+	public void cancelFitting() {
+		final AtomicBoolean cancelled = fittingCancelled;
+		if (cancelled != null)
+			cancelled.set(true);
+	}
+
 	public void fitPaths(final List<PathFitter> pathsToFit) {
 
 		final int numberOfPathsToFit = pathsToFit.size();
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		fittingCancelled = cancelled;
 
 		new Thread(new Runnable() {
 			@Override
@@ -188,28 +200,39 @@ public class PathWindow extends JFrame implements PathAndFillListener, TreeSelec
 				try {
 
 					final FittingProgress progress = new FittingProgress(numberOfPathsToFit);
+					final ForkJoinPool pool = PathFitter.fittingPool();
+					final List<Future<Path>> futures = new ArrayList<>();
 					for (int i = 0; i < numberOfPathsToFit; ++i) {
 						final PathFitter pf = pathsToFit.get(i);
 						pf.setProgressCallback(i, progress);
+						pf.setCancelledFlag(cancelled);
+						futures.add(pool.submit(pf));
+					}
+					/*
+					 * Paths that were fitted before any cancellation have
+					 * already been given their fitted versions, so add those
+					 * even if the rest were cancelled:
+					 */
+					final List<Path> results = new ArrayList<>();
+					for (final Future<Path> future : futures) {
+						try {
+							final Path result = future.get();
+							if (result != null)
+								results.add(result);
+						} catch (final ExecutionException e) {
+							SNT.error("The following exception was thrown: " + e.getCause());
+							e.printStackTrace();
+						}
 					}
-					final int processors = Runtime.getRuntime().availableProcessors();
-					final ExecutorService es = Executors.newFixedThreadPool(processors);
-					final List<Future<Path>> futures = es.invokeAll(pathsToFit);
 					SwingUtilities.invokeLater(new Runnable() {
 						@Override
 						public void run() {
-							try {
-								for (final Future<Path> future : futures) {
-									final Path result = future.get();
-									pathAndFillManager.addPath(result);
-								}
-							} catch (final Exception e) {
-								SNT.error("The following exception was thrown: " + e);
-								e.printStackTrace();
-								return;
-							}
+							for (final Path result : results)
+								pathAndFillManager.addPath(result);
 							pathAndFillManager.resetListeners(null);
 							progress.done();
+							if (cancelled.get())
+								IJ.showStatus("Fitting cancelled");
 						}
 					});
 				} catch (final InterruptedException ie) {
@@ -218,6 +241,8 @@ public class PathWindow extends JFrame implements PathAndFillListener, TreeSelec
 					 * never happen...
 					 */
 				} finally {
+					if (fittingCancelled == cancelled)
+						fittingCancelled = null;
 					plugin.changeUIState(preFittingState);
 				}
 			}
@@ -51,12 +51,19 @@ public class SNTPrefs {
 	private static final int DEBUG = 4096;
 	private static final int LOOK_FOR_TRACES = 8192;
 	private static final int COMPRESSED_XML = 16384;
+	private static final int PRIMITIVE_SEARCH_ENGINE = 32768;
+	private static final int PARALLEL_BIDIRECTIONAL = 65536;
+	private static final int COST_VOLUME = 131072;
+	private static final int PRECOMPUTE_TUBENESS = 262144;
+	private static final int BINARY_FILLS = 524288;
+	private static final int SPECULATIVE_TRACING = 1048576;
 
 	private static final String BOOLEANS = "tracing.snt.booleans";
 	private static final String SNAP_XY = "tracing.snt.xysnap";
 	private static final String SNAP_Z = "tracing.snt.zsnap";
 	private static final String PATHWIN_LOC = "tracing.snt.pwloc";
 	private static final String FILLWIN_LOC = "tracing.snt.fwloc";
+	private static final String FILL_MARGIN = "tracing.snt.fillmargin";
 
 	//private static final String SNAP_Z = "tracing.snt.zsnap";
 
@@ -91,6 +98,12 @@ public class SNTPrefs {
 	protected void loadPluginPrefs() {
 		getBooleans();
 		snt.useCompressedXML = getPref(COMPRESSED_XML);
+		snt.usePrimitiveSearchEngine = getPref(PRIMITIVE_SEARCH_ENGINE);
+		snt.parallelBidirectionalSearch = getPref(PARALLEL_BIDIRECTIONAL);
+		snt.useCostVolume = getPref(COST_VOLUME);
+		snt.precomputeTubeness = getPref(PRECOMPUTE_TUBENESS);
+		snt.useBinaryFills = getPref(BINARY_FILLS);
+		snt.speculativeTracing = getPref(SPECULATIVE_TRACING);
 		snt.autoCanvasActivation = getPref(AUTO_CANVAS_ACTIVATION);
 		snt.snapCursor = getPref(SNAP_CURSOR);
 		snt.drawDiametersXY = getPref(DRAW_DIAMETERS_XY);
@@ -105,6 +118,15 @@ public class SNTPrefs {
 				SimpleNeuriteTracer.MAX_SNAP_CURSOR_WINDOW_Z);
 		if (snt.cursorSnapWindowZ > snt.depth)
 			snt.cursorSnapWindowZ = snt.depth;
+		snt.fillThresholdMargin = validFillMargin(Prefs.get(FILL_MARGIN, 0));
+	}
+
+	/* The margin is either 0 (fills don't stop) or at least the threshold: */
+
+	private double validFillMargin(final double margin) {
+		if (Double.isNaN(margin) || margin <= 0)
+			return 0;
+		return Math.max(1, margin);
 	}
 
 	private int whithinBoundaries(final int value, final int min, final int max) {
@@ -141,10 +163,17 @@ public class SNTPrefs {
 
 	protected void savePluginPrefs() {
 		setPref(COMPRESSED_XML, snt.useCompressedXML);
+		setPref(PRIMITIVE_SEARCH_ENGINE, snt.usePrimitiveSearchEngine);
+		setPref(PARALLEL_BIDIRECTIONAL, snt.parallelBidirectionalSearch);
+		setPref(COST_VOLUME, snt.useCostVolume);
+		setPref(PRECOMPUTE_TUBENESS, snt.precomputeTubeness);
+		setPref(BINARY_FILLS, snt.useBinaryFills);
+		setPref(SPECULATIVE_TRACING, snt.speculativeTracing);
 		setPref(AUTO_CANVAS_ACTIVATION, snt.autoCanvasActivation);
 		setPref(SNAP_CURSOR, snt.snapCursor);
 		Prefs.set(SNAP_XY, snt.cursorSnapWindowXY);
 		Prefs.set(SNAP_Z, snt.cursorSnapWindowZ);
+		Prefs.set(FILL_MARGIN, snt.fillThresholdMargin);
 		setPref(DRAW_DIAMETERS_XY, snt.drawDiametersXY);
 		setPref(ENFORCE_DEFAULT_PATH_COLORS, !snt.displayCustomPathColors);
 		setPref(SHOW_ONLY_SELECTED, snt.showOnlySelectedPaths);
@@ -188,6 +217,7 @@ public class SNTPrefs {
 		Prefs.set(BOOLEANS, null);
 		Prefs.set(SNAP_XY, null);
 		Prefs.set(SNAP_Z, null);
+		Prefs.set(FILL_MARGIN, null);
 		Prefs.set(FILLWIN_LOC, null);
 		Prefs.set(PATHWIN_LOC, null);
 		currentBooleans = UNSET_PREFS;
@@ -200,7 +230,7 @@ public class SNTPrefs {
 	protected void promptForOptions() {
 
 		final int startupOptions = 7;
-		final int pluginOptions = 2;
+		final int pluginOptions = 8;
 
 		final String[] startupLabels = new String[startupOptions];
 		final int[] startupItems = new int[startupOptions];
@@ -244,6 +274,30 @@ public class SNTPrefs {
 		pluginLabels[idx] = "Use compression when saving traces";
 		pluginStates[idx++] = snt.useCompressedXML;
 
+		pluginItems[idx] = PRIMITIVE_SEARCH_ENGINE;
+		pluginLabels[idx] = "Use_primitive search engine (less memory, no per-node objects)";
+		pluginStates[idx++] = snt.usePrimitiveSearchEngine;
+
+		pluginItems[idx] = PARALLEL_BIDIRECTIONAL;
+		pluginLabels[idx] = "Search_from both ends of a path on separate threads";
+		pluginStates[idx++] = snt.parallelBidirectionalSearch;
+
+		pluginItems[idx] = COST_VOLUME;
+		pluginLabels[idx] = "Precompute_the cost of every voxel for searches (uses 4 bytes per voxel)";
+		pluginStates[idx++] = snt.useCostVolume;
+
+		pluginItems[idx] = PRECOMPUTE_TUBENESS;
+		pluginLabels[idx] = "Precompute_tubeness for the whole image in the background (cached beside the image)";
+		pluginStates[idx++] = snt.precomputeTubeness;
+
+		pluginItems[idx] = BINARY_FILLS;
+		pluginLabels[idx] = "Save_fills in compact binary form (not readable by older versions)";
+		pluginStates[idx++] = snt.useBinaryFills;
+
+		pluginItems[idx] = SPECULATIVE_TRACING;
+		pluginLabels[idx] = "Trace_ahead to the cursor before it's clicked";
+		pluginStates[idx++] = snt.speculativeTracing;
+
 		pluginItems[idx] = DEBUG;
 		pluginLabels[idx] = "Enable_debug mode";
 		pluginStates[idx++] = SimpleNeuriteTracer.verbose;
@@ -258,6 +312,7 @@ public class SNTPrefs {
 		gd.addMessage("Advanced Options:", font);
 		gd.setInsets(0, 0, 0);
 		gd.addCheckboxGroup(pluginOptions, 1, pluginLabels, pluginStates);
+		gd.addNumericField("Stop_fills at threshold x", snt.fillThresholdMargin, 1, 5, "(0 to keep exploring)");
 
 		gd.enableYesNoCancel("OK", "Revert to Defaults");
 		gd.showDialog();
@@ -278,6 +333,7 @@ public class SNTPrefs {
 					currentBooleans &= ~pluginItems[i];
 			}
 			Prefs.set(BOOLEANS, currentBooleans);
+			Prefs.set(FILL_MARGIN, validFillMargin(gd.getNextNumber()));
 
 		} else {
 			resetOptions();
@@ -285,6 +341,8 @@ public class SNTPrefs {
 
 		Prefs.savePreferences();
 		loadPluginPrefs();
+		if (!snt.speculativeTracing)
+			snt.cancelSpeculativeSearch();
 
 	}
 
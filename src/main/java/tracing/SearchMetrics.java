@@ -0,0 +1,217 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/*
+ * Measurements of a single search, which SearchThread keeps up to date as it
+ * goes and hands to any SearchMetricsCallback listeners. The counts are kept
+ * separately for the search from the start and the search from the goal
+ * (index 0 and 1), since in a parallel bidirectional search each is only
+ * updated by its own thread; the accessors without a fromStart argument give
+ * the totals for both. The peak sizes for both together are the largest
+ * total seen when either side expanded a point, which isn't the same as
+ * adding the peaks of the two sides, since they needn't peak at the same
+ * time. Values read while the search is still running may be slightly
+ * behind.
+ *
+ * The time spent working out the cost of moving to points and in adding to,
+ * taking from and reordering the open list is only measured if the search
+ * was asked to (see SearchThread.setTimeMetrics()), since calling
+ * System.nanoTime() that often slows the search down noticeably.
+ */
+
+public class SearchMetrics {
+
+	public static final String[] CSV_HEADERS = { "Search", "ExitReason", "ElapsedMilliseconds", "NodesExpanded",
+			"NodesReopened", "PeakOpen", "PeakClosed", "EstimatedBytes", "CostMilliseconds", "QueueMilliseconds" };
+
+	final long[] nodesExpanded = new long[2];
+	final long[] nodesReopened = new long[2];
+	final int[] peakOpen = new int[2];
+	final int[] peakClosed = new int[2];
+	final int[] peakTotalOpen = new int[2];
+	final int[] peakTotalClosed = new int[2];
+	final int[] lastOpen = new int[2];
+	final int[] lastClosed = new int[2];
+	final long[] costNanoseconds = new long[2];
+	final long[] queueNanoseconds = new long[2];
+
+	boolean timed;
+
+	long startedAt;
+	long finishedAt;
+	long estimatedBytes;
+	int exitReason = -1;
+
+	static int side(final boolean fromStart) {
+		return fromStart ? 0 : 1;
+	}
+
+	void expanded(final boolean fromStart, final int inOpen, final int inClosed) {
+		final int side = side(fromStart);
+		++nodesExpanded[side];
+		if (inOpen > peakOpen[side])
+			peakOpen[side] = inOpen;
+		if (inClosed > peakClosed[side])
+			peakClosed[side] = inClosed;
+		lastOpen[side] = inOpen;
+		lastClosed[side] = inClosed;
+		final int totalOpen = inOpen + lastOpen[1 - side];
+		final int totalClosed = inClosed + lastClosed[1 - side];
+		if (totalOpen > peakTotalOpen[side])
+			peakTotalOpen[side] = totalOpen;
+		if (totalClosed > peakTotalClosed[side])
+			peakTotalClosed[side] = totalClosed;
+	}
+
+	void reset() {
+		for (int side = 0; side < 2; ++side) {
+			nodesExpanded[side] = nodesReopened[side] = 0;
+			peakOpen[side] = peakClosed[side] = 0;
+			peakTotalOpen[side] = peakTotalClosed[side] = 0;
+			lastOpen[side] = lastClosed[side] = 0;
+			costNanoseconds[side] = queueNanoseconds[side] = 0;
+		}
+		startedAt = finishedAt = estimatedBytes = 0;
+		exitReason = -1;
+	}
+
+	public long getNodesExpanded(final boolean fromStart) {
+		return nodesExpanded[side(fromStart)];
+	}
+
+	public long getNodesExpanded() {
+		return nodesExpanded[0] + nodesExpanded[1];
+	}
+
+	/* How many times a closed point was put back on the open list: */
+
+	public long getNodesReopened(final boolean fromStart) {
+		return nodesReopened[side(fromStart)];
+	}
+
+	public long getNodesReopened() {
+		return nodesReopened[0] + nodesReopened[1];
+	}
+
+	public int getPeakOpen(final boolean fromStart) {
+		return peakOpen[side(fromStart)];
+	}
+
+	public int getPeakOpen() {
+		return Math.max(peakTotalOpen[0], peakTotalOpen[1]);
+	}
+
+	public int getPeakClosed(final boolean fromStart) {
+		return peakClosed[side(fromStart)];
+	}
+
+	public int getPeakClosed() {
+		return Math.max(peakTotalClosed[0], peakTotalClosed[1]);
+	}
+
+	/* A rough estimate of the heap used by the search's data structures: */
+
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public boolean isTimed() {
+		return timed;
+	}
+
+	/* These are 0 unless isTimed() is true: */
+
+	public double getCostMilliseconds() {
+		return (costNanoseconds[0] + costNanoseconds[1]) / 1e6;
+	}
+
+	public double getQueueMilliseconds() {
+		return (queueNanoseconds[0] + queueNanoseconds[1]) / 1e6;
+	}
+
+	public long getElapsedMilliseconds() {
+		return ((finishedAt == 0) ? System.currentTimeMillis() : finishedAt) - startedAt;
+	}
+
+	/* One of SearchThread.SUCCESS etc., or -1 if the search hasn't finished: */
+
+	public int getExitReason() {
+		return exitReason;
+	}
+
+	public String getExitReasonString() {
+		if (exitReason < 0 || exitReason >= SearchThread.exitReasonStrings.length)
+			return "RUNNING";
+		return SearchThread.exitReasonStrings[exitReason];
+	}
+
+	String[] csvValues(final String name) {
+		return new String[] { name, getExitReasonString(), "" + getElapsedMilliseconds(), "" + getNodesExpanded(),
+				"" + getNodesReopened(), "" + getPeakOpen(), "" + getPeakClosed(), "" + estimatedBytes,
+				timed ? ("" + getCostMilliseconds()) : "", timed ? ("" + getQueueMilliseconds()) : "" };
+	}
+
+	@Override
+	public String toString() {
+		return getExitReasonString() + " after " + getElapsedMilliseconds() + "ms: " + getNodesExpanded()
+				+ " expanded, " + getNodesReopened() + " reopened, peak " + getPeakOpen() + " open / "
+				+ getPeakClosed() + " closed, ~" + (estimatedBytes / 1024) + "KiB";
+	}
+
+	/*
+	 * Writes one row for each search, named by the corresponding element of
+	 * names (or numbered if that's null).
+	 */
+
+	public static void exportToCSV(final List<SearchMetrics> searches, final List<String> names,
+			final File outputFile) throws IOException {
+		final PrintWriter pw = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(outputFile.getAbsolutePath()), "UTF-8"));
+		try {
+			printCSVRow(pw, CSV_HEADERS);
+			for (int i = 0; i < searches.size(); ++i)
+				printCSVRow(pw, searches.get(i).csvValues((names == null) ? ("" + (i + 1)) : names.get(i)));
+		} finally {
+			pw.close();
+		}
+	}
+
+	private static void printCSVRow(final PrintWriter pw, final String[] values) {
+		for (int c = 0; c < values.length; ++c) {
+			pw.print(PathAndFillManager.stringForCSV(values[c]));
+			if (c < (values.length - 1))
+				pw.print(",");
+		}
+		pw.print("\r\n");
+	}
+}
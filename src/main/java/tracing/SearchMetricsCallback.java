@@ -0,0 +1,39 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+/*
+ * A SearchProgressCallback that is also sent the SearchMetrics of the search
+ * each time the number of points is reported and once more, with the exit
+ * reason filled in, just before finished() is called. Adding one of these as
+ * a listener also turns on the timing in the metrics - see
+ * SearchThread.setTimeMetrics().
+ */
+
+public interface SearchMetricsCallback extends SearchProgressCallback {
+
+	public void searchMetrics(SearchThread source, SearchMetrics metrics);
+
+}
@@ -56,6 +56,10 @@ public class SearchNode implements Comparable {
 
 	public byte searchStatus;
 
+	/* The slot of this node in a SearchNodeHeap, or -1 if it isn't in one: */
+
+	int heapIndex = -1;
+
 	public SearchNode(final int x, final int y, final int z, final float g, final float h, final SearchNode predecessor,
 			final byte searchStatus) {
 		this.x = x;
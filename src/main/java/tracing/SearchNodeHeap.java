@@ -0,0 +1,205 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package tracing;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * A binary heap of SearchNodes, ordered by SearchNode.compareTo() just as a
+ * PriorityQueue<SearchNode> would be, in which each node remembers its slot in
+ * the heap (SearchNode.heapIndex). This means that when a better route to a
+ * node in the open list is found, the node can be moved up to its new place
+ * with decreaseKey() in O(log n), rather than with PriorityQueue.remove(),
+ * which is a linear scan, followed by add().
+ *
+ * A node can only be in one SearchNodeHeap at a time.
+ */
+
+public class SearchNodeHeap extends AbstractQueue<SearchNode> {
+
+	private SearchNode[] heap = new SearchNode[1024];
+	private int size;
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean offer(final SearchNode n) {
+		if (size == heap.length)
+			heap = Arrays.copyOf(heap, size * 2);
+		heap[size] = n;
+		n.heapIndex = size;
+		++size;
+		siftUp(size - 1);
+		return true;
+	}
+
+	/*
+	 * Adds a node at the end of the heap without moving it to its place, so
+	 * the heap is out of order until heapify() is called. Adding n nodes like
+	 * this and then calling heapify() once takes O(n) rather than the
+	 * O(n log n) of calling offer() for each.
+	 */
+
+	void append(final SearchNode n) {
+		if (size == heap.length)
+			heap = Arrays.copyOf(heap, size * 2);
+		heap[size] = n;
+		n.heapIndex = size;
+		++size;
+	}
+
+	void heapify() {
+		for (int i = (size >>> 1) - 1; i >= 0; --i)
+			siftDown(i);
+	}
+
+	@Override
+	public SearchNode peek() {
+		return (size == 0) ? null : heap[0];
+	}
+
+	@Override
+	public SearchNode poll() {
+		if (size == 0)
+			return null;
+		final SearchNode result = heap[0];
+		removeAt(0);
+		return result;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		if (!(o instanceof SearchNode))
+			return false;
+		final int i = ((SearchNode) o).heapIndex;
+		return i >= 0 && i < size && heap[i] == o;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		if (!contains(o))
+			return false;
+		removeAt(((SearchNode) o).heapIndex);
+		return true;
+	}
+
+	/*
+	 * Call this after reducing the f value of a node that is already in the
+	 * heap (e.g. with SearchNode.setFrom()):
+	 */
+
+	public void decreaseKey(final SearchNode n) {
+		if (!contains(n))
+			throw new IllegalArgumentException("BUG: decreaseKey called for a node that isn't in the heap: " + n);
+		siftUp(n.heapIndex);
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size; ++i) {
+			heap[i].heapIndex = -1;
+			heap[i] = null;
+		}
+		size = 0;
+	}
+
+	/* Iterates over the nodes in no particular order, as PriorityQueue does: */
+
+	@Override
+	public Iterator<SearchNode> iterator() {
+		return new Iterator<SearchNode>() {
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public SearchNode next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				return heap[next++];
+			}
+		};
+	}
+
+	private void removeAt(final int i) {
+		final SearchNode removed = heap[i];
+		--size;
+		if (i < size) {
+			heap[i] = heap[size];
+			heap[i].heapIndex = i;
+			heap[size] = null;
+			siftDown(i);
+			siftUp(heap[i].heapIndex);
+		} else {
+			heap[size] = null;
+		}
+		removed.heapIndex = -1;
+	}
+
+	private void siftUp(int i) {
+		final SearchNode n = heap[i];
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			final SearchNode p = heap[parent];
+			if (n.compareTo(p) >= 0)
+				break;
+			heap[i] = p;
+			p.heapIndex = i;
+			i = parent;
+		}
+		heap[i] = n;
+		n.heapIndex = i;
+	}
+
+	private void siftDown(int i) {
+		final SearchNode n = heap[i];
+		final int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			final int right = child + 1;
+			if (right < size && heap[right].compareTo(heap[child]) < 0)
+				child = right;
+			if (n.compareTo(heap[child]) <= 0)
+				break;
+			heap[i] = heap[child];
+			heap[i].heapIndex = i;
+			i = child;
+		}
+		heap[i] = n;
+		n.heapIndex = i;
+	}
+
+}
@@ -0,0 +1,63 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package tracing;
+
+/*
+ * The SearchNodes of one direction of a search, indexed by their position in
+ * the image. The references are kept in pages that are allocated as the
+ * search reaches them (see VoxelPages), so that the memory used grows with
+ * the volume that has been explored rather than with the size of the image.
+ */
+
+class SearchNodePages extends VoxelPages {
+
+	final SearchNode[][] nodes;
+
+	SearchNodePages(final int width, final int height, final int depth) {
+		super(width, height, depth);
+		nodes = new SearchNode[pages][];
+	}
+
+	@Override
+	boolean pageAllocated(final int page) {
+		return nodes[page] != null;
+	}
+
+	/* Returns null if there's no node at that point: */
+
+	SearchNode get(final int x, final int y, final int z) {
+		final SearchNode[] page = nodes[page(x, y, z)];
+		return (page == null) ? null : page[offset(x, y, z)];
+	}
+
+	void put(final int x, final int y, final int z, final SearchNode n) {
+		final int page = page(x, y, z);
+		if (nodes[page] == null)
+			nodes[page] = new SearchNode[pageSize];
+		nodes[page][offset(x, y, z)] = n;
+	}
+
+}
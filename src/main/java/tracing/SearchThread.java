@@ -29,7 +29,8 @@ import java.awt.Graphics;
 import java.io.CharArrayWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.PriorityQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import ij.IJ;
 import ij.ImagePlus;
@@ -89,20 +90,53 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 
 	}
 
+	/*
+	 * If this is set, the search looks up the cost of moving to each point in
+	 * it instead of calling costMovingTo(), so it must have been calculated
+	 * with the same cost function that costMovingTo() uses in this search.
+	 */
+
+	CostVolume costVolume;
+
+	public void setCostVolume(final CostVolume costVolume) {
+		if (isAlive())
+			throw new RuntimeException("BUG: the cost volume can't be changed once the search has started");
+		if (costVolume != null
+				&& (costVolume.width != width || costVolume.height != height || costVolume.depth != depth))
+			throw new RuntimeException("BUG: the cost volume is a different size from the image");
+		this.costVolume = costVolume;
+	}
+
 	/*
 	 * Use this for doing special progress updates, beyond what
 	 * SearchProgressCallback provides.
 	 */
 
 	protected void reportPointsInSearch() {
-		for (final SearchProgressCallback progress : progressListeners)
-			progress.pointsInSearch(this, open_from_start.size() + (bidirectional ? open_from_goal.size() : 0),
-					closed_from_start.size() + (bidirectional ? closed_from_goal.size() : 0));
+		metrics.estimatedBytes = estimateMemoryBytes();
+		for (final SearchProgressCallback progress : progressListeners) {
+			progress.pointsInSearch(this, openSize(true) + (bidirectional ? openSize(false) : 0),
+					closedSize(true) + (bidirectional ? closedSize(false) : 0));
+			if (progress instanceof SearchMetricsCallback)
+				((SearchMetricsCallback) progress).searchMetrics(this, metrics);
+		}
 	}
 
 	public int pointsConsideredInSearch() {
-		return open_from_start.size() + (bidirectional ? open_from_goal.size() : 0) + closed_from_start.size()
-				+ (bidirectional ? closed_from_goal.size() : 0);
+		return openSize(true) + (bidirectional ? openSize(false) : 0) + closedSize(true)
+				+ (bidirectional ? closedSize(false) : 0);
+	}
+
+	int openSize(final boolean fromStart) {
+		if (usePrimitiveEngine)
+			return (fromStart ? state_from_start : state_from_goal).openCount();
+		return (fromStart ? open_from_start : open_from_goal).size();
+	}
+
+	int closedSize(final boolean fromStart) {
+		if (usePrimitiveEngine)
+			return (fromStart ? state_from_start : state_from_goal).closedCount();
+		return fromStart ? closed_from_start_count : closed_from_goal_count;
 	}
 
 	/*
@@ -193,6 +227,8 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 
 	public void addProgressListener(final SearchProgressCallback callback) {
 		progressListeners.add(callback);
+		if (callback instanceof SearchMetricsCallback)
+			metrics.timed = true;
 	}
 
 	/*
@@ -203,9 +239,17 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	 * and the thread is unpaused
 	 */
 
-	/* This can only be changed in a block synchronized on this object */
+	/*
+	 * This can only be changed in a block synchronized on statusLock, which
+	 * must then call statusLock.notifyAll() so that a paused search wakes up
+	 * at once (see waitWhilePaused()). The listeners are told about the change
+	 * after leaving that block, so that they never run holding the lock. This
+	 * isn't synchronized on the thread itself, since Thread.join() waits on
+	 * that.
+	 */
 
 	private volatile int threadStatus = PAUSED;
+	private final Object statusLock = new Object();
 
 	public static final int RUNNING = 0;
 	public static final int PAUSED = 1;
@@ -221,21 +265,15 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	public void requestStop() {
 		if (verbose)
 			SNT.log("requestStop called, about to enter synchronized");
-		synchronized (this) {
+		synchronized (statusLock) {
 			if (verbose)
 				SNT.log("... entered synchronized");
-			if (threadStatus == PAUSED) {
-				if (verbose)
-					SNT.log("was paused so interrupting");
-				this.interrupt();
-				if (verbose)
-					SNT.log("done interrupting");
-			}
 			threadStatus = STOPPING;
-			reportThreadStatus();
+			statusLock.notifyAll();
 			if (verbose)
 				SNT.log("... leaving synchronized");
 		}
+		reportThreadStatus();
 		if (verbose)
 			SNT.log("requestStop finished (threadStatus now " + threadStatus + ")");
 	}
@@ -247,14 +285,112 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	protected void addingNode(final SearchNode n) {
 	}
 
+	/**
+	 * The equivalent of addingNode(SearchNode) when the primitive search
+	 * engine is being used, since then there are no SearchNode objects:
+	 */
+	protected void addingNode(final int x, final int y, final int z) {
+	}
+
+	/**
+	 * Override this to find out when a point is closed, i.e. the best route
+	 * to it has been found (for the search from the start, or the goal if
+	 * fromStart is false), with either search engine:
+	 */
+	protected void closedNode(final int x, final int y, final int z, final float g, final boolean fromStart) {
+	}
+
+	/**
+	 * Called when a closed point is put back on the open list because a
+	 * better route to it has been found; g is the cost it was closed with.
+	 */
+	protected void reopenedNode(final int x, final int y, final int z, final float g, final boolean fromStart) {
+	}
+
 	public void reportThreadStatus() {
 		for (final SearchProgressCallback progress : progressListeners)
 			progress.threadStatus(this, threadStatus);
 	}
 
 	public void reportFinished(final boolean success) {
-		for (final SearchProgressCallback progress : progressListeners)
+		metrics.finishedAt = System.currentTimeMillis();
+		metrics.exitReason = exitReason;
+		metrics.estimatedBytes = estimateMemoryBytes();
+		if (verbose)
+			SNT.log("Search metrics: " + metrics);
+		for (final SearchProgressCallback progress : progressListeners) {
+			if (progress instanceof SearchMetricsCallback)
+				((SearchMetricsCallback) progress).searchMetrics(this, metrics);
 			progress.finished(this, success);
+		}
+	}
+
+	/*
+	 * The measurements of this search so far (or of the whole search, once
+	 * it has finished) - see SearchMetrics.
+	 */
+
+	final SearchMetrics metrics = new SearchMetrics();
+
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * Whether to measure how long is spent finding the costs of moving to
+	 * points and on the open list. This is turned on automatically if a
+	 * SearchMetricsCallback is added as a listener.
+	 */
+
+	public void setTimeMetrics(final boolean timeMetrics) {
+		if (isAlive())
+			throw new RuntimeException("BUG: timing can't be changed once the search has started");
+		metrics.timed = timeMetrics;
+	}
+
+	/* Rough sizes in bytes, assuming compressed object pointers: */
+	static final int SEARCH_NODE_BYTES = 48;
+	static final int REFERENCE_BYTES = 4;
+
+	/*
+	 * A rough estimate of the memory taken by the search: the pages of each
+	 * search, and either the SearchNodes and open lists or the arrays of the
+	 * primitive engine.
+	 */
+
+	long estimateMemoryBytes() {
+		long bytes = 0;
+		for (int side = 0; side < (bidirectional ? 2 : 1); ++side) {
+			final boolean fromStart = side == 0;
+			if (usePrimitiveEngine) {
+				final VoxelSearchState state = fromStart ? state_from_start : state_from_goal;
+				bytes += 4L * REFERENCE_BYTES * state.pages;
+				bytes += (long) state.pagesAllocated() * state.pageSize * (4 + 1 + 1 + 4);
+				bytes += state.heapVoxels.length * (8L + 4L);
+			} else {
+				final SearchNodePages nodes_as_image = fromStart ? nodes_as_image_from_start
+						: nodes_as_image_from_goal;
+				bytes += (long) REFERENCE_BYTES * nodes_as_image.pages;
+				bytes += (long) nodes_as_image.pagesAllocated() * nodes_as_image.pageSize * REFERENCE_BYTES;
+				bytes += (long) (openSize(fromStart) + closedSize(fromStart)) * SEARCH_NODE_BYTES;
+				bytes += (long) openSize(fromStart) * REFERENCE_BYTES;
+			}
+		}
+		return bytes;
+	}
+
+	/*
+	 * The cost of moving to a point, from the cost volume if there is one,
+	 * timed if the metrics are being timed.
+	 */
+
+	private double costOfMovingTo(final int side, final int x, final int y, final int z) {
+		if (!metrics.timed)
+			return (costVolume == null) ? costMovingTo(x, y, z) : costVolume.costs[z][y * width + x];
+		final long before = System.nanoTime();
+		final double cost = (costVolume == null) ? costMovingTo(x, y, z) : costVolume.costs[z][y * width + x];
+		metrics.costNanoseconds[side] += System.nanoTime() - before;
+		return cost;
 	}
 
 	// Toggles the paused or unpaused status of the thread.
@@ -263,17 +399,15 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 		// Toggle the paused status:
 		if (verbose)
 			SNT.log("pauseOrUnpause called, about to enter synchronized");
-		synchronized (this) {
+		synchronized (statusLock) {
 			if (verbose)
 				SNT.log("... entered synchronized");
 			switch (threadStatus) {
 			case PAUSED:
 				if (verbose)
-					SNT.log("paused, going to switch to running - interrupting first");
-				this.interrupt();
-				if (verbose)
-					SNT.log("finished interrupting");
+					SNT.log("paused, going to switch to running");
 				threadStatus = RUNNING;
+				pausedAtLimit = false;
 				break;
 			case RUNNING:
 				if (verbose)
@@ -283,14 +417,81 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			default:
 				// Do nothing, we're actually stopping anyway.
 			}
-			reportThreadStatus();
+			statusLock.notifyAll();
 			if (verbose)
 				SNT.log("... leaving synchronized");
 		}
+		reportThreadStatus();
 		if (verbose)
 			SNT.log("pauseOrUnpause finished");
 	}
 
+	/*
+	 * Blocks the calling thread (the search thread, or the thread for the
+	 * search from the goal) until the search is unpaused or stopped. Changing
+	 * threadStatus wakes it straight away, so there's no polling.
+	 */
+
+	private void waitWhilePaused(final boolean report) {
+		if (report)
+			reportThreadStatus();
+		boolean interrupted = false;
+		synchronized (statusLock) {
+			while (threadStatus == PAUSED) {
+				try {
+					statusLock.wait();
+				} catch (final InterruptedException e) {
+					/*
+					 * Carry on waiting unless the status has changed, but
+					 * remember the interrupt, e.g. for a pool that's shutting
+					 * down:
+					 */
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * Subclasses can override this to stop the search going any further for
+	 * now, e.g. FillerThread once everything within its threshold has been
+	 * found. The search then pauses itself, or if exitAtLimit is set, finishes
+	 * with REACHED_LIMIT. The open list is kept either way, so if this is no
+	 * longer true when the search is unpaused (or run() is called again), it
+	 * carries on from where it stopped rather than starting again.
+	 */
+
+	protected boolean searchLimitReached() {
+		return false;
+	}
+
+	boolean exitAtLimit;
+
+	public void setExitAtLimit(final boolean exitAtLimit) {
+		this.exitAtLimit = exitAtLimit;
+	}
+
+	/* Only changed in a block synchronized on statusLock */
+	private boolean pausedAtLimit;
+
+	/*
+	 * Unpauses the search if it paused itself because searchLimitReached() was
+	 * true and that's no longer the case.
+	 */
+
+	public void resumeIfPausedAtLimit() {
+		synchronized (statusLock) {
+			if (!pausedAtLimit || threadStatus != PAUSED || searchLimitReached())
+				return;
+			threadStatus = RUNNING;
+			pausedAtLimit = false;
+			statusLock.notifyAll();
+		}
+		reportThreadStatus();
+	}
+
 	int imageType = -1;
 	float stackMin;
 	float stackMax;
@@ -356,37 +557,192 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 		this.timeoutSeconds = timeoutSeconds;
 		this.reportEveryMilliseconds = reportEveryMilliseconds;
 
-		closed_from_start = new PriorityQueue<>();
-		open_from_start = new PriorityQueue<>();
-		if (bidirectional) {
-			closed_from_goal = new PriorityQueue<>();
-			open_from_goal = new PriorityQueue<>();
-		}
+		open_from_start = new SearchNodeHeap();
+		if (bidirectional)
+			open_from_goal = new SearchNodeHeap();
 
-		nodes_as_image_from_start = new SearchNode[depth][];
+		nodes_as_image_from_start = new SearchNodePages(width, height, depth);
 		if (bidirectional)
-			nodes_as_image_from_goal = new SearchNode[depth][];
+			nodes_as_image_from_goal = new SearchNodePages(width, height, depth);
 
 		minimum_cost_per_unit_distance = minimumCostPerUnitDistance();
 
 		progressListeners = new ArrayList<>();
 	}
 
-	PriorityQueue<SearchNode> closed_from_start;
-	PriorityQueue<SearchNode> open_from_start;
+	SearchNodeHeap open_from_start;
+
+	// This is null if the search is not bidirectional
+	SearchNodeHeap open_from_goal;
+
+	/*
+	 * Nothing needs the closed nodes in order, so rather than keeping them in
+	 * a list we just count them: whether a node is closed is given by its
+	 * searchStatus, and closedNodes() finds them all via nodes_as_image_*.
+	 */
+
+	int closed_from_start_count;
+	int closed_from_goal_count;
+
+	SearchNodePages nodes_as_image_from_start;
+	SearchNodePages nodes_as_image_from_goal;
+
+	/*
+	 * If usePrimitiveEngine is true, none of the SearchNode structures above are
+	 * used: the whole state of the search is in these instead. (The second is
+	 * null if the search is not bidirectional.)
+	 */
+
+	boolean usePrimitiveEngine;
+
+	VoxelSearchState state_from_start;
+	VoxelSearchState state_from_goal;
+
+	/*
+	 * Switch between keeping the search in SearchNode objects and keeping it in
+	 * primitive arrays indexed by voxel, which creates no objects while the
+	 * search runs. Either way the search explores the same points and finds
+	 * the same result. Any nodes that have already been added are carried over,
+	 * so this can be called after construction, but not once the search has
+	 * started.
+	 */
+
+	public void setUsePrimitiveEngine(final boolean usePrimitiveEngine) {
+		if (isAlive())
+			throw new RuntimeException("BUG: the search engine can't be changed once the search has started");
+		if (usePrimitiveEngine == this.usePrimitiveEngine)
+			return;
+		if (usePrimitiveEngine) {
+			final ArrayList<SearchNode> fromStartNodes = new ArrayList<>();
+			for (final SearchNode n : closedNodes(true))
+				fromStartNodes.add(n);
+			fromStartNodes.addAll(open_from_start);
+			final ArrayList<SearchNode> fromGoalNodes = new ArrayList<>();
+			if (bidirectional) {
+				for (final SearchNode n : closedNodes(false))
+					fromGoalNodes.add(n);
+				fromGoalNodes.addAll(open_from_goal);
+			}
+			resetSearchNodes();
+			state_from_start = new VoxelSearchState(width, height, depth, true);
+			if (bidirectional)
+				state_from_goal = new VoxelSearchState(width, height, depth, false);
+			this.usePrimitiveEngine = true;
+			for (final SearchNode n : fromStartNodes)
+				loadNode(n, true);
+			for (final SearchNode n : fromGoalNodes)
+				loadNode(n, false);
+			finishLoading();
+		} else {
+			this.usePrimitiveEngine = false;
+			resetSearchNodes();
+			searchNodesFromState(state_from_start, true);
+			if (bidirectional)
+				searchNodesFromState(state_from_goal, false);
+			state_from_start = state_from_goal = null;
+		}
+	}
+
+	private void resetSearchNodes() {
+		closed_from_start_count = closed_from_goal_count = 0;
+		open_from_start = new SearchNodeHeap();
+		nodes_as_image_from_start = new SearchNodePages(width, height, depth);
+		if (bidirectional) {
+			open_from_goal = new SearchNodeHeap();
+			nodes_as_image_from_goal = new SearchNodePages(width, height, depth);
+		}
+	}
 
-	// The next two are null if the search is not bidirectional
-	PriorityQueue<SearchNode> closed_from_goal;
-	PriorityQueue<SearchNode> open_from_goal;
+	/*
+	 * Iterates over the closed nodes of the search from the start or the goal,
+	 * by scanning the pages that the search has reached. (This is only for
+	 * the SearchNode engine - see VoxelSearchState for the primitive one.)
+	 */
+
+	Iterable<SearchNode> closedNodes(final boolean fromStart) {
+		final SearchNodePages nodes_as_image = fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal;
+		final byte closedStatus = fromStart ? CLOSED_FROM_START : CLOSED_FROM_GOAL;
+		return new Iterable<SearchNode>() {
+
+			@Override
+			public Iterator<SearchNode> iterator() {
+				return new Iterator<SearchNode>() {
+
+					int page = 0;
+					int i = -1;
+					SearchNode next = findNext();
+
+					private SearchNode findNext() {
+						for (; page < nodes_as_image.pages; ++page, i = -1) {
+							final SearchNode[] nodes = nodes_as_image.nodes[page];
+							if (nodes == null)
+								continue;
+							while (++i < nodes.length) {
+								final SearchNode n = nodes[i];
+								if (n != null && n.searchStatus == closedStatus)
+									return n;
+							}
+						}
+						return null;
+					}
 
-	SearchNode[][] nodes_as_image_from_start;
-	SearchNode[][] nodes_as_image_from_goal;
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public SearchNode next() {
+						if (next == null)
+							throw new NoSuchElementException();
+						final SearchNode result = next;
+						next = findNext();
+						return result;
+					}
+				};
+			}
+		};
+	}
+
+	private void searchNodesFromState(final VoxelSearchState state, final boolean fromStart) {
+		final SearchNodePages nodes_as_image = fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal;
+		for (int page = 0; page < state.pages; ++page) {
+			final byte[] status = state.status[page];
+			if (status == null)
+				continue;
+			for (int i = 0; i < status.length; ++i) {
+				if (status[i] == 0)
+					continue;
+				final int x = state.x(page, i);
+				final int y = state.y(page, i);
+				final int z = state.z(page, i);
+				loadNode(createNewNode(x, y, z, state.g[page][i], estimateCostToGoal(x, y, z, fromStart), null,
+						status[i]), fromStart);
+			}
+		}
+		(fromStart ? open_from_start : open_from_goal).heapify();
+		for (int page = 0; page < state.pages; ++page) {
+			final byte[] status = state.status[page];
+			if (status == null)
+				continue;
+			for (int i = 0; i < status.length; ++i) {
+				final int code = state.predecessor[page][i];
+				if (status[i] == 0 || code == VoxelSearchState.NO_PREDECESSOR)
+					continue;
+				final int x = state.x(page, i);
+				final int y = state.y(page, i);
+				final int z = state.z(page, i);
+				nodes_as_image.get(x, y, z).setPredecessor(
+						nodes_as_image.get(x + code / 9 - 1, y + (code / 3) % 3 - 1, z + code % 3 - 1));
+			}
+		}
+	}
 
 	public void printStatus() {
-		SNT.log("... with " + open_from_start.size() + " open nodes at the start and " + closed_from_start.size()
+		SNT.log("... with " + openSize(true) + " open nodes at the start and " + closedSize(true)
 				+ " closed nodes at the start");
 		if (bidirectional) {
-			SNT.log("... with " + open_from_goal.size() + " open nodes at the goal and " + closed_from_goal.size()
+			SNT.log("... with " + openSize(false) + " open nodes at the goal and " + closedSize(false)
 					+ " closed nodes at the goal");
 		} else
 			SNT.log(" ... unidirectional search");
@@ -404,13 +760,27 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			if (verbose)
 				SNT.log("... was asked to start it in the " + (startPaused ? "paused" : "unpaused") + " state.");
 
-			synchronized (this) {
-				threadStatus = startPaused ? PAUSED : RUNNING;
-				reportThreadStatus();
+			synchronized (statusLock) {
+				/* requestStop() may have been called before the thread started: */
+				if (threadStatus != STOPPING)
+					threadStatus = startPaused ? PAUSED : RUNNING;
+				statusLock.notifyAll();
 			}
+			reportThreadStatus();
 
 			final long started_at = lastReportMilliseconds = System.currentTimeMillis();
 
+			metrics.reset();
+			metrics.startedAt = started_at;
+
+			meetingFound = false;
+			stopFrontiers = false;
+
+			if (bidirectional && parallelBidirectional) {
+				runFrontiersInParallel(started_at);
+				return;
+			}
+
 			int loops_at_last_report = 0;
 			int loops = 0;
 
@@ -424,7 +794,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 			 * image.
 			 */
 
-			while ((open_from_start.size() > 0) || (bidirectional && (open_from_goal.size() > 0))) {
+			while ((openSize(true) > 0) || (bidirectional && (openSize(false) > 0))) {
 
 				if (threadStatus == STOPPING) {
 					reportThreadStatus();
@@ -432,11 +802,8 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 					reportFinished(false);
 					return;
 				} else if (threadStatus == PAUSED) {
-					try {
-						reportThreadStatus();
-						Thread.sleep(4000);
-					} catch (final InterruptedException e) {
-					}
+					waitWhilePaused(true);
+					continue;
 				}
 
 				// We only check every thousandth loop for
@@ -473,173 +840,39 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 					}
 				}
 
-				boolean fromStart = true;
-				if (bidirectional)
-					fromStart = open_from_goal.size() > open_from_start.size();
-
-				final PriorityQueue<SearchNode> open_queue = fromStart ? open_from_start : open_from_goal;
-				final PriorityQueue<SearchNode> closed_queue = fromStart ? closed_from_start : closed_from_goal;
-
-				final SearchNode[][] nodes_as_image_this_search = fromStart ? nodes_as_image_from_start
-						: nodes_as_image_from_goal;
-				final SearchNode[][] nodes_as_image_other_search = fromStart ? nodes_as_image_from_goal
-						: nodes_as_image_from_start;
-
-				SearchNode p = null;
-
-				if (open_queue.size() == 0)
+				if (searchLimitReached()) {
+					reportPointsInSearch();
+					if (exitAtLimit) {
+						setExitReason(REACHED_LIMIT);
+						reportFinished(true);
+						return;
+					}
+					boolean pausedNow = false;
+					synchronized (statusLock) {
+						if (threadStatus == RUNNING) {
+							if (verbose)
+								SNT.log("Reached the limit of the search, pausing");
+							threadStatus = PAUSED;
+							pausedAtLimit = true;
+							pausedNow = true;
+							statusLock.notifyAll();
+						}
+					}
+					if (pausedNow)
+						reportThreadStatus();
 					continue;
+				}
 
-				// p = get_highest_priority( open_from_start,
-				// open_from_start_hash );
-				p = open_queue.poll();
-				if (p == null)
-					continue;
+				boolean fromStart = true;
+				if (bidirectional)
+					fromStart = openSize(false) > openSize(true);
 
-				// Has the route from the start found the goal?
-				if (definedGoal && atGoal(p.x, p.y, p.z, fromStart)) {
-					if (verbose)
-						SNT.log("Found the goal!");
-					if (fromStart)
-						foundGoal(p.asPath(x_spacing, y_spacing, z_spacing, spacing_units));
-					else
-						foundGoal(p.asPathReversed(x_spacing, y_spacing, z_spacing, spacing_units));
+				if (usePrimitiveEngine ? expandPrimitive(fromStart) : expandNodes(fromStart)) {
+					foundGoal(pathThroughMeeting());
 					setExitReason(SUCCESS);
 					reportFinished(true);
 					return;
 				}
-
-				p.searchStatus = fromStart ? CLOSED_FROM_START : CLOSED_FROM_GOAL;
-				closed_queue.add(p);
-				nodes_as_image_this_search[p.z][p.y * width + p.x] = p;
-
-				// Now look at the neighbours of p. We're going to consider
-				// the 26 neighbours in 3D.
-
-				for (int zdiff = -1; zdiff <= 1; zdiff++) {
-
-					final int new_z = p.z + zdiff;
-					if (new_z < 0 || new_z >= depth)
-						continue;
-
-					if (nodes_as_image_this_search[new_z] == null) {
-						nodes_as_image_this_search[new_z] = new SearchNode[width * height];
-					}
-
-					for (int xdiff = -1; xdiff <= 1; xdiff++)
-						for (int ydiff = -1; ydiff <= 1; ydiff++) {
-
-							if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0))
-								continue;
-
-							final int new_x = p.x + xdiff;
-							final int new_y = p.y + ydiff;
-
-							if (new_x < 0 || new_x >= width)
-								continue;
-
-							if (new_y < 0 || new_y >= height)
-								continue;
-
-							final double xdiffsq = (xdiff * x_spacing) * (xdiff * x_spacing);
-							final double ydiffsq = (ydiff * y_spacing) * (ydiff * y_spacing);
-							final double zdiffsq = (zdiff * z_spacing) * (zdiff * z_spacing);
-
-							final float h_for_new_point = estimateCostToGoal(new_x, new_y, new_z, fromStart);
-
-							double cost_moving_to_new_point = costMovingTo(new_x, new_y, new_z);
-							if (cost_moving_to_new_point < minimum_cost_per_unit_distance) {
-								cost_moving_to_new_point = minimum_cost_per_unit_distance;
-							}
-
-							final float g_for_new_point = (float) (p.g
-									+ Math.sqrt(xdiffsq + ydiffsq + zdiffsq) * cost_moving_to_new_point);
-
-							final float f_for_new_point = h_for_new_point + g_for_new_point;
-
-							final SearchNode newNode = createNewNode(new_x, new_y, new_z, g_for_new_point,
-									h_for_new_point, p, FREE);
-
-							// Is this newNode really new?
-							final SearchNode alreadyThereInThisSearch = nodes_as_image_this_search[new_z][new_y * width
-									+ new_x];
-
-							if (alreadyThereInThisSearch == null) {
-
-								newNode.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
-								open_queue.add(newNode);
-								addingNode(newNode);
-								nodes_as_image_this_search[new_z][new_y * width + new_x] = newNode;
-
-							} else {
-
-								// The other alternative is that this node is
-								// already in one
-								// of the lists working from the start but has a
-								// better way
-								// of getting to that point.
-
-								if (alreadyThereInThisSearch.f > f_for_new_point) {
-
-									if (alreadyThereInThisSearch.searchStatus == (fromStart ? OPEN_FROM_START
-											: OPEN_FROM_GOAL)) {
-
-										open_queue.remove(alreadyThereInThisSearch);
-										alreadyThereInThisSearch.setFrom(newNode);
-										alreadyThereInThisSearch.searchStatus = fromStart ? OPEN_FROM_START
-												: OPEN_FROM_GOAL;
-										open_queue.add(alreadyThereInThisSearch);
-
-									} else if (alreadyThereInThisSearch.searchStatus == (fromStart ? CLOSED_FROM_START
-											: CLOSED_FROM_GOAL)) {
-
-										closed_queue.remove(alreadyThereInThisSearch);
-										alreadyThereInThisSearch.setFrom(newNode);
-										alreadyThereInThisSearch.searchStatus = fromStart ? OPEN_FROM_START
-												: OPEN_FROM_GOAL;
-										open_queue.add(alreadyThereInThisSearch);
-									}
-								}
-							}
-
-							if (bidirectional && nodes_as_image_other_search[new_z] != null) {
-
-								final SearchNode alreadyThereInOtherSearch = nodes_as_image_other_search[new_z][new_y
-										* width + new_x];
-								if (alreadyThereInOtherSearch != null) {
-
-									Path result = null;
-
-									// If either of the next two if conditions
-									// are true
-									// then we've finished.
-
-									if (alreadyThereInOtherSearch != null
-											&& (alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_START
-													|| alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_GOAL)) {
-
-										if (fromStart) {
-											result = p.asPath(x_spacing, y_spacing, z_spacing, spacing_units);
-											final Path fromGoalReversed = alreadyThereInOtherSearch
-													.asPathReversed(x_spacing, y_spacing, z_spacing, spacing_units);
-											result.add(fromGoalReversed);
-										} else {
-											result = alreadyThereInOtherSearch.asPath(x_spacing, y_spacing, z_spacing,
-													spacing_units);
-											result.add(
-													p.asPathReversed(x_spacing, y_spacing, z_spacing, spacing_units));
-										}
-										if (verbose)
-											SNT.log("Searches met!");
-										foundGoal(result);
-										setExitReason(SUCCESS);
-										reportFinished(true);
-										return;
-									}
-								}
-							}
-						}
-				}
 				++loops;
 			}
 
@@ -680,6 +913,468 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 
 	}
 
+	/*
+	 * If this is true, a bidirectional search runs the search from the goal
+	 * on a second thread, rather than alternating between the two searches on
+	 * this one. The two searches only ever modify their own nodes, and just
+	 * look at the other search's nodes to find out whether they've met, so
+	 * they can run at the same time; once one of them finds the meeting point
+	 * the other is stopped before the path is put together. The path that's
+	 * found may be different from the one that alternating would find, since
+	 * it depends on how quickly each side of the search happens to get on.
+	 */
+
+	boolean parallelBidirectional;
+
+	public void setParallelBidirectional(final boolean parallelBidirectional) {
+		if (isAlive())
+			throw new RuntimeException("BUG: parallel searching can't be changed once the search has started");
+		this.parallelBidirectional = parallelBidirectional;
+	}
+
+	/*
+	 * Where the search finished: the point that was taken from the open list
+	 * of one of the searches, and, if the searches met rather than one of
+	 * them reaching its goal, the neighbouring point that the other search
+	 * had already closed. Only the first meeting that's found counts.
+	 */
+
+	private volatile boolean meetingFound;
+	private volatile boolean stopFrontiers;
+	private boolean meetingFromStart;
+	private boolean meetingAtGoal;
+	private int meeting_x, meeting_y, meeting_z;
+	private int meeting_other_x, meeting_other_y, meeting_other_z;
+
+	private synchronized void recordMeeting(final boolean fromStart, final int x, final int y, final int z,
+			final boolean atGoal, final int other_x, final int other_y, final int other_z) {
+		if (meetingFound)
+			return;
+		meetingFromStart = fromStart;
+		meetingAtGoal = atGoal;
+		meeting_x = x;
+		meeting_y = y;
+		meeting_z = z;
+		meeting_other_x = other_x;
+		meeting_other_y = other_y;
+		meeting_other_z = other_z;
+		meetingFound = true;
+	}
+
+	/*
+	 * Builds the path through the point recorded by recordMeeting(). This must
+	 * only be called once neither search is running any more.
+	 */
+
+	private synchronized Path pathThroughMeeting() {
+		if (meetingAtGoal)
+			return pathFrom(meetingFromStart, meeting_x, meeting_y, meeting_z, !meetingFromStart);
+		final Path result;
+		if (meetingFromStart) {
+			result = pathFrom(true, meeting_x, meeting_y, meeting_z, false);
+			result.add(pathFrom(false, meeting_other_x, meeting_other_y, meeting_other_z, true));
+		} else {
+			result = pathFrom(true, meeting_other_x, meeting_other_y, meeting_other_z, false);
+			result.add(pathFrom(false, meeting_x, meeting_y, meeting_z, true));
+		}
+		return result;
+	}
+
+	private Path pathFrom(final boolean fromStart, final int x, final int y, final int z, final boolean reversed) {
+		if (usePrimitiveEngine)
+			return (fromStart ? state_from_start : state_from_goal).asPath(x, y, z, x_spacing, y_spacing, z_spacing,
+					spacing_units, reversed);
+		final SearchNode n = (fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal).get(x, y, z);
+		if (reversed)
+			return n.asPathReversed(x_spacing, y_spacing, z_spacing, spacing_units);
+		return n.asPath(x_spacing, y_spacing, z_spacing, spacing_units);
+	}
+
+	/*
+	 * The parallel version of the loop in run(): the search from the start
+	 * carries on in this thread while the search from the goal has a thread
+	 * of its own, and the exit reason is only reported once both have
+	 * stopped.
+	 */
+
+	private void runFrontiersInParallel(final long started_at) throws InterruptedException {
+
+		final int[] goalExitReason = { POINTS_EXHAUSTED };
+		final Throwable[] goalException = { null };
+		final Thread goalThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					goalExitReason[0] = runFrontier(false, started_at);
+				} catch (final Throwable t) {
+					stopFrontiers = true;
+					goalException[0] = t;
+				}
+			}
+		}, getName() + " (from goal)");
+		goalThread.start();
+
+		final int startExitReason;
+		try {
+			startExitReason = runFrontier(true, started_at);
+		} catch (final Throwable t) {
+			stopFrontiers = true;
+			goalThread.join();
+			throw t;
+		}
+		goalThread.join();
+
+		if (goalException[0] instanceof Error)
+			throw (Error) goalException[0];
+		if (goalException[0] != null)
+			throw (RuntimeException) goalException[0];
+
+		if (meetingFound) {
+			foundGoal(pathThroughMeeting());
+			setExitReason(SUCCESS);
+			reportFinished(true);
+			return;
+		}
+
+		int exitReason = POINTS_EXHAUSTED;
+		if (startExitReason == CANCELLED || goalExitReason[0] == CANCELLED) {
+			reportThreadStatus();
+			exitReason = CANCELLED;
+		} else if (startExitReason == TIMED_OUT || goalExitReason[0] == TIMED_OUT) {
+			if (verbose)
+				SNT.log("Timed out...");
+			exitReason = TIMED_OUT;
+		} else if (verbose)
+			SNT.log("FAILED to find a route.  Shouldn't happen...");
+		setExitReason(exitReason);
+		reportFinished(false);
+	}
+
+	/*
+	 * Runs one side of a parallel bidirectional search until the searches
+	 * meet (SUCCESS) or it has to stop for another reason, which is returned.
+	 * If it was stopped because the other side had to stop, the other side's
+	 * reason is the one that counts, so this just returns POINTS_EXHAUSTED.
+	 * Only the search from the start reports progress.
+	 */
+
+	private int runFrontier(final boolean fromStart, final long started_at) {
+
+		int loops = 0;
+
+		while (!meetingFound && !stopFrontiers && openSize(fromStart) > 0) {
+
+			if (threadStatus == STOPPING) {
+				stopFrontiers = true;
+				return CANCELLED;
+			} else if (threadStatus == PAUSED) {
+				waitWhilePaused(fromStart);
+				continue;
+			}
+
+			if (0 == (loops % 1000)) {
+
+				final long currentMilliseconds = System.currentTimeMillis();
+
+				if ((timeoutSeconds > 0) && (currentMilliseconds - started_at > (1000 * timeoutSeconds))) {
+					stopFrontiers = true;
+					return TIMED_OUT;
+				}
+
+				if (fromStart && (reportEveryMilliseconds > 0)
+						&& (currentMilliseconds - lastReportMilliseconds > reportEveryMilliseconds)) {
+					if (verbose)
+						printStatus();
+					reportPointsInSearch();
+				}
+			}
+
+			if (usePrimitiveEngine ? expandPrimitive(fromStart) : expandNodes(fromStart))
+				return SUCCESS;
+			++loops;
+		}
+
+		return meetingFound ? SUCCESS : POINTS_EXHAUSTED;
+	}
+
+	/*
+	 * This does one iteration of the loop in run(), taking the best node from
+	 * the open list of the search from the start or the goal and adding or
+	 * improving its neighbours. Returns true if the search has finished, in
+	 * which case the point where it finished has been passed to
+	 * recordMeeting().
+	 */
+
+	private boolean expandNodes(final boolean fromStart) {
+
+		final SearchNodeHeap open_queue = fromStart ? open_from_start : open_from_goal;
+
+		final SearchNodePages nodes_as_image_this_search = fromStart ? nodes_as_image_from_start
+				: nodes_as_image_from_goal;
+		final SearchNodePages nodes_as_image_other_search = fromStart ? nodes_as_image_from_goal
+				: nodes_as_image_from_start;
+
+		SearchNode p = null;
+
+		if (open_queue.size() == 0)
+			return false;
+
+		final int side = SearchMetrics.side(fromStart);
+		final boolean timed = metrics.timed;
+		metrics.expanded(fromStart, open_queue.size(), closedSize(fromStart));
+
+		// p = get_highest_priority( open_from_start,
+		// open_from_start_hash );
+		long before = timed ? System.nanoTime() : 0;
+		p = open_queue.poll();
+		if (timed)
+			metrics.queueNanoseconds[side] += System.nanoTime() - before;
+		if (p == null)
+			return false;
+
+		// Has the route from the start found the goal?
+		if (definedGoal && atGoal(p.x, p.y, p.z, fromStart)) {
+			if (verbose)
+				SNT.log("Found the goal!");
+			recordMeeting(fromStart, p.x, p.y, p.z, true, -1, -1, -1);
+			return true;
+		}
+
+		p.searchStatus = fromStart ? CLOSED_FROM_START : CLOSED_FROM_GOAL;
+		if (fromStart)
+			++closed_from_start_count;
+		else
+			++closed_from_goal_count;
+		nodes_as_image_this_search.put(p.x, p.y, p.z, p);
+		closedNode(p.x, p.y, p.z, p.g, fromStart);
+
+		// Now look at the neighbours of p. We're going to consider
+		// the 26 neighbours in 3D.
+
+		for (int zdiff = -1; zdiff <= 1; zdiff++) {
+
+			final int new_z = p.z + zdiff;
+			if (new_z < 0 || new_z >= depth)
+				continue;
+
+			for (int xdiff = -1; xdiff <= 1; xdiff++)
+				for (int ydiff = -1; ydiff <= 1; ydiff++) {
+
+					if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0))
+						continue;
+
+					final int new_x = p.x + xdiff;
+					final int new_y = p.y + ydiff;
+
+					if (new_x < 0 || new_x >= width)
+						continue;
+
+					if (new_y < 0 || new_y >= height)
+						continue;
+
+					final double xdiffsq = (xdiff * x_spacing) * (xdiff * x_spacing);
+					final double ydiffsq = (ydiff * y_spacing) * (ydiff * y_spacing);
+					final double zdiffsq = (zdiff * z_spacing) * (zdiff * z_spacing);
+
+					final float h_for_new_point = estimateCostToGoal(new_x, new_y, new_z, fromStart);
+
+					double cost_moving_to_new_point = costOfMovingTo(side, new_x, new_y, new_z);
+					if (cost_moving_to_new_point < minimum_cost_per_unit_distance) {
+						cost_moving_to_new_point = minimum_cost_per_unit_distance;
+					}
+
+					final float g_for_new_point = (float) (p.g
+							+ Math.sqrt(xdiffsq + ydiffsq + zdiffsq) * cost_moving_to_new_point);
+
+					final float f_for_new_point = h_for_new_point + g_for_new_point;
+
+					final SearchNode newNode = createNewNode(new_x, new_y, new_z, g_for_new_point, h_for_new_point,
+							p, FREE);
+
+					// Is this newNode really new?
+					final SearchNode alreadyThereInThisSearch = nodes_as_image_this_search.get(new_x, new_y, new_z);
+
+					if (timed)
+						before = System.nanoTime();
+
+					if (alreadyThereInThisSearch == null) {
+
+						newNode.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+						open_queue.add(newNode);
+						addingNode(newNode);
+						nodes_as_image_this_search.put(new_x, new_y, new_z, newNode);
+
+					} else {
+
+						// The other alternative is that this node is
+						// already in one
+						// of the lists working from the start but has a
+						// better way
+						// of getting to that point.
+
+						if (alreadyThereInThisSearch.f > f_for_new_point) {
+
+							if (alreadyThereInThisSearch.searchStatus == (fromStart ? OPEN_FROM_START
+									: OPEN_FROM_GOAL)) {
+
+								// The f value can only have decreased, so
+								// the node just moves up the open list:
+								alreadyThereInThisSearch.setFrom(newNode);
+								alreadyThereInThisSearch.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+								open_queue.decreaseKey(alreadyThereInThisSearch);
+
+							} else if (alreadyThereInThisSearch.searchStatus == (fromStart ? CLOSED_FROM_START
+									: CLOSED_FROM_GOAL)) {
+
+								if (fromStart)
+									--closed_from_start_count;
+								else
+									--closed_from_goal_count;
+								++metrics.nodesReopened[side];
+								reopenedNode(new_x, new_y, new_z, alreadyThereInThisSearch.g, fromStart);
+								alreadyThereInThisSearch.setFrom(newNode);
+								alreadyThereInThisSearch.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+								open_queue.add(alreadyThereInThisSearch);
+							}
+						}
+					}
+
+					if (timed)
+						metrics.queueNanoseconds[side] += System.nanoTime() - before;
+
+					if (bidirectional) {
+
+						final SearchNode alreadyThereInOtherSearch = nodes_as_image_other_search.get(new_x, new_y,
+								new_z);
+
+						// If the other search has already closed this
+						// point then we've finished.
+
+						if (alreadyThereInOtherSearch != null
+								&& (alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_START
+										|| alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_GOAL)) {
+							if (verbose)
+								SNT.log("Searches met!");
+							recordMeeting(fromStart, p.x, p.y, p.z, false, new_x, new_y, new_z);
+							return true;
+						}
+					}
+				}
+		}
+		return false;
+	}
+
+	/*
+	 * This does the same as expandNodes() when the primitive search engine
+	 * is being used.
+	 */
+
+	private boolean expandPrimitive(final boolean fromStart) {
+
+		final VoxelSearchState this_search = fromStart ? state_from_start : state_from_goal;
+		final VoxelSearchState other_search = fromStart ? state_from_goal : state_from_start;
+
+		if (this_search.openCount() == 0)
+			return false;
+
+		final int side = SearchMetrics.side(fromStart);
+		final boolean timed = metrics.timed;
+		metrics.expanded(fromStart, this_search.openCount(), this_search.closedCount());
+
+		long before = timed ? System.nanoTime() : 0;
+		final long p = this_search.pollOpen();
+		if (timed)
+			metrics.queueNanoseconds[side] += System.nanoTime() - before;
+		final int p_x = this_search.x(p);
+		final int p_y = this_search.y(p);
+		final int p_z = this_search.z(p);
+
+		if (definedGoal && atGoal(p_x, p_y, p_z, fromStart)) {
+			if (verbose)
+				SNT.log("Found the goal!");
+			recordMeeting(fromStart, p_x, p_y, p_z, true, -1, -1, -1);
+			return true;
+		}
+
+		this_search.close(p_x, p_y, p_z);
+		final float p_g = this_search.getG(p_x, p_y, p_z);
+		closedNode(p_x, p_y, p_z, p_g, fromStart);
+
+		for (int zdiff = -1; zdiff <= 1; zdiff++) {
+
+			final int new_z = p_z + zdiff;
+			if (new_z < 0 || new_z >= depth)
+				continue;
+
+			for (int xdiff = -1; xdiff <= 1; xdiff++)
+				for (int ydiff = -1; ydiff <= 1; ydiff++) {
+
+					if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0))
+						continue;
+
+					final int new_x = p_x + xdiff;
+					final int new_y = p_y + ydiff;
+
+					if (new_x < 0 || new_x >= width)
+						continue;
+
+					if (new_y < 0 || new_y >= height)
+						continue;
+
+					final double xdiffsq = (xdiff * x_spacing) * (xdiff * x_spacing);
+					final double ydiffsq = (ydiff * y_spacing) * (ydiff * y_spacing);
+					final double zdiffsq = (zdiff * z_spacing) * (zdiff * z_spacing);
+
+					final float h_for_new_point = estimateCostToGoal(new_x, new_y, new_z, fromStart);
+
+					double cost_moving_to_new_point = costOfMovingTo(side, new_x, new_y, new_z);
+					if (cost_moving_to_new_point < minimum_cost_per_unit_distance) {
+						cost_moving_to_new_point = minimum_cost_per_unit_distance;
+					}
+
+					final float g_for_new_point = (float) (p_g
+							+ Math.sqrt(xdiffsq + ydiffsq + zdiffsq) * cost_moving_to_new_point);
+
+					final float f_for_new_point = h_for_new_point + g_for_new_point;
+
+					final byte predecessor = VoxelSearchState.predecessorCode(-xdiff, -ydiff, -zdiff);
+
+					if (timed)
+						before = System.nanoTime();
+
+					if (!this_search.reached(new_x, new_y, new_z)) {
+
+						this_search.add(new_x, new_y, new_z, g_for_new_point, f_for_new_point, predecessor, true);
+						addingNode(new_x, new_y, new_z);
+
+					} else if (this_search.getG(new_x, new_y, new_z) + h_for_new_point > f_for_new_point) {
+
+						// There's a better way of getting to this point, which
+						// may mean moving it from the closed list back to the
+						// open list:
+
+						if (this_search.isClosed(new_x, new_y, new_z)) {
+							++metrics.nodesReopened[side];
+							reopenedNode(new_x, new_y, new_z, this_search.getG(new_x, new_y, new_z), fromStart);
+						}
+						this_search.improve(new_x, new_y, new_z, g_for_new_point, f_for_new_point, predecessor);
+					}
+
+					if (timed)
+						metrics.queueNanoseconds[side] += System.nanoTime() - before;
+
+					if (bidirectional && other_search.isClosed(new_x, new_y, new_z)) {
+						if (verbose)
+							SNT.log("Searches met!");
+						recordMeeting(fromStart, p_x, p_y, p_z, false, new_x, new_y, new_z);
+						return true;
+					}
+				}
+		}
+		return false;
+	}
+
 	/*
 	 * This is the heuristic value for the A* search. There's no defined goal in
 	 * this default superclass implementation, so always return 0 so we end up
@@ -695,9 +1390,10 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	public static int TIMED_OUT = 2;
 	public static int POINTS_EXHAUSTED = 3;
 	public static int OUT_OF_MEMORY = 4;
+	public static int REACHED_LIMIT = 5;
 
 	public static String[] exitReasonStrings = { "SUCCESS", "CANCELLED", "TIMED_OUT", "POINTS_EXHAUSTED",
-			"OUT_OF_MEMORY" };
+			"OUT_OF_MEMORY", "REACHED_LIMIT" };
 
 	protected int exitReason;
 
@@ -715,25 +1411,39 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	}
 
 	SearchNode anyNodeUnderThreshold(final int x, final int y, final int z, final double threshold) {
-		final SearchNode[] startSlice = nodes_as_image_from_start[z];
-		SearchNode[] goalSlice = null;
-		if (nodes_as_image_from_goal != null)
-			goalSlice = nodes_as_image_from_goal[z];
-		final int index = y * width + x;
-		SearchNode n = null;
-		if (startSlice != null) {
-			n = startSlice[index];
+		SearchNode n = nodes_as_image_from_start.get(x, y, z);
+		if (n != null && threshold >= 0 && n.g > threshold)
+			n = null;
+		if (n == null && nodes_as_image_from_goal != null) {
+			n = nodes_as_image_from_goal.get(x, y, z);
 			if (n != null && threshold >= 0 && n.g > threshold)
 				n = null;
-			if (n == null && goalSlice != null) {
-				n = goalSlice[index];
-				if (threshold >= 0 && n.g > threshold)
-					n = null;
-			}
 		}
 		return n;
 	}
 
+	/*
+	 * Returns the status of the point in the search from the start or,
+	 * failing that, in the search from the goal, or 0 if neither has reached
+	 * it with a distance under the threshold. (A negative threshold means that
+	 * there is no threshold.)
+	 */
+
+	byte searchStatusUnderThreshold(final int x, final int y, final int z, final double threshold) {
+		if (!usePrimitiveEngine) {
+			final SearchNode n = anyNodeUnderThreshold(x, y, z, threshold);
+			return (n == null) ? 0 : n.searchStatus;
+		}
+		for (final VoxelSearchState state : new VoxelSearchState[] { state_from_start, state_from_goal }) {
+			if (state == null)
+				continue;
+			final byte status = state.getStatus(x, y, z);
+			if (status != 0 && (threshold < 0 || state.getG(x, y, z) <= threshold))
+				return status;
+		}
+		return 0;
+	}
+
 	/*
 	 * This draws over the Graphics object the current progress of the search at
 	 * this slice. If openColor or closedColor are null then that means
@@ -767,10 +1477,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 				final int z = currentSliceInPlane;
 				for (int y = 0; y < height; ++y)
 					for (int x = 0; x < width; ++x) {
-						final SearchNode n = anyNodeUnderThreshold(x, y, z, drawingThreshold);
-						if (n == null)
-							continue;
-						final byte status = n.searchStatus;
+						final byte status = searchStatusUnderThreshold(x, y, z, drawingThreshold);
 						if (status == start_status || status == goal_status)
 							g.fillRect(canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(y) - pixel_size / 2,
 									pixel_size, pixel_size);
@@ -779,10 +1486,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 				final int y = currentSliceInPlane;
 				for (int z = 0; z < depth; ++z)
 					for (int x = 0; x < width; ++x) {
-						final SearchNode n = anyNodeUnderThreshold(x, y, z, drawingThreshold);
-						if (n == null)
-							continue;
-						final byte status = n.searchStatus;
+						final byte status = searchStatusUnderThreshold(x, y, z, drawingThreshold);
 						if (status == start_status || status == goal_status)
 							g.fillRect(canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(z) - pixel_size / 2,
 									pixel_size, pixel_size);
@@ -791,10 +1495,7 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 				final int x = currentSliceInPlane;
 				for (int y = 0; y < height; ++y)
 					for (int z = 0; z < depth; ++z) {
-						final SearchNode n = anyNodeUnderThreshold(x, y, z, drawingThreshold);
-						if (n == null)
-							continue;
-						final byte status = n.searchStatus;
+						final byte status = searchStatusUnderThreshold(x, y, z, drawingThreshold);
 						if (status == start_status || status == goal_status)
 							g.fillRect(canvas.myScreenX(z) - pixel_size / 2, canvas.myScreenY(y) - pixel_size / 2,
 									pixel_size, pixel_size);
@@ -806,39 +1507,90 @@ public abstract class SearchThread extends Thread implements SearchInterface {
 	// Add a node, ignoring requests to add duplicate nodes:
 
 	public void addNode(final SearchNode n, final boolean fromStart) {
+		addNode(n, fromStart, true);
+	}
+
+	/*
+	 * These are for restoring a search with many points (e.g. in
+	 * FillerThread.fromFill()): they add points as addNode() does, but leave
+	 * the open lists out of order until finishLoading() is called, which
+	 * orders them in a single O(n) pass.
+	 */
 
-		final SearchNode[][] nodes_as_image = fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal;
+	void loadNode(final SearchNode n, final boolean fromStart) {
+		addNode(n, fromStart, false);
+	}
+
+	/* This only works with the primitive engine, and needs no SearchNodes: */
+
+	void loadVoxel(final int x, final int y, final int z, final float g, final float f, final byte predecessorCode,
+			final boolean open, final boolean fromStart) {
+		if (!usePrimitiveEngine)
+			throw new RuntimeException("BUG: loadVoxel() called without the primitive search engine");
+		(fromStart ? state_from_start : state_from_goal).load(x, y, z, g, f, predecessorCode, open);
+	}
+
+	void finishLoading() {
+		if (usePrimitiveEngine) {
+			state_from_start.heapify();
+			if (state_from_goal != null)
+				state_from_goal.heapify();
+		} else {
+			open_from_start.heapify();
+			if (open_from_goal != null)
+				open_from_goal.heapify();
+		}
+	}
 
-		if (nodes_as_image[n.z] == null) {
-			nodes_as_image[n.z] = new SearchNode[width * height];
+	private void addNode(final SearchNode n, final boolean fromStart, final boolean ordered) {
+
+		if (usePrimitiveEngine) {
+			final boolean open = (n.searchStatus == OPEN_FROM_START) || (n.searchStatus == OPEN_FROM_GOAL);
+			final boolean closed = (n.searchStatus == CLOSED_FROM_START) || (n.searchStatus == CLOSED_FROM_GOAL);
+			final VoxelSearchState state = fromStart ? state_from_start : state_from_goal;
+			if (open || closed) {
+				if (ordered)
+					state.add(n.x, n.y, n.z, n.g, n.f, VoxelSearchState.predecessorCode(n), open);
+				else
+					state.load(n.x, n.y, n.z, n.g, n.f, VoxelSearchState.predecessorCode(n), open);
+			}
+			return;
 		}
 
-		if (nodes_as_image[n.z][n.y * width + n.x] != null) {
+		final SearchNodePages nodes_as_image = fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal;
+
+		if (nodes_as_image.get(n.x, n.y, n.z) != null) {
 			// Then there's already a node there:
 			return;
 		}
 
 		if (n.searchStatus == OPEN_FROM_START) {
 
-			open_from_start.add(n);
-			nodes_as_image[n.z][n.y * width + n.x] = n;
+			if (ordered)
+				open_from_start.add(n);
+			else
+				open_from_start.append(n);
+			nodes_as_image.put(n.x, n.y, n.z, n);
 
 		} else if (n.searchStatus == OPEN_FROM_GOAL) {
 			assert bidirectional && definedGoal;
 
-			open_from_goal.add(n);
-			nodes_as_image[n.z][n.y * width + n.x] = n;
+			if (ordered)
+				open_from_goal.add(n);
+			else
+				open_from_goal.append(n);
+			nodes_as_image.put(n.x, n.y, n.z, n);
 
 		} else if (n.searchStatus == CLOSED_FROM_START) {
 
-			closed_from_start.add(n);
-			nodes_as_image[n.z][n.y * width + n.x] = n;
+			++closed_from_start_count;
+			nodes_as_image.put(n.x, n.y, n.z, n);
 
 		} else if (n.searchStatus == CLOSED_FROM_GOAL) {
 			assert bidirectional && definedGoal;
 
-			closed_from_goal.add(n);
-			nodes_as_image[n.z][n.y * width + n.x] = n;
+			++closed_from_goal_count;
+			nodes_as_image.put(n.x, n.y, n.z, n);
 
 		}
 
@@ -28,13 +28,16 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.event.KeyListener;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.scijava.vecmath.Color3f;
 import org.scijava.vecmath.Point3d;
@@ -100,11 +103,28 @@ public class SimpleNeuriteTracer extends ThreePanes
 	protected Content imageContent;
 
 	protected boolean useCompressedXML;
+	/* Whether fills are saved as in Fill.writeNodesBinary() */
+	protected boolean useBinaryFills;
 	volatile protected boolean unsavedPaths = false;
 	volatile protected boolean autoCanvasActivation;
 	volatile protected boolean snapCursor;
 	volatile protected int cursorSnapWindowXY;
 	volatile protected int cursorSnapWindowZ;
+	/* Whether new searches should use the primitive search engine (see
+	 * SearchThread.setUsePrimitiveEngine()) */
+	volatile protected boolean usePrimitiveSearchEngine;
+	/* Whether the two halves of a bidirectional search should run on
+	 * separate threads (see SearchThread.setParallelBidirectional()) */
+	volatile protected boolean parallelBidirectionalSearch;
+	/* Whether new searches should look up their costs in a CostVolume
+	 * rather than working them out from the image each time */
+	volatile protected boolean useCostVolume;
+	/* If this is more than zero, fills only explore as far as their
+	 * threshold times this (see FillerThread.setThresholdMargin()) */
+	volatile protected double fillThresholdMargin;
+	/* Whether to search from the end of a partial path to the point under
+	 * the cursor while the mouse is moved (see traceSpeculativelyTo()) */
+	volatile protected boolean speculativeTracing;
 
 	public boolean pathsUnsaved() {
 		return unsavedPaths;
@@ -155,6 +175,7 @@ public class SimpleNeuriteTracer extends ThreePanes
 	}
 
 	public void cancelSearch(final boolean cancelFillToo) {
+		cancelSpeculativeSearch();
 		if (currentSearchThread != null)
 			currentSearchThread.requestStop();
 		if (tubularGeodesicsThread != null)
@@ -182,27 +203,19 @@ public class SimpleNeuriteTracer extends ThreePanes
 
 		if (filler != null) {
 			// The filler must be paused while we save to
-			// avoid concurrent modifications...
-
-			if (verbose)
-				SNT.log("[" + Thread.currentThread() + "] going to lock filler in plugin.saveFill");
-			synchronized (filler) {
-				if (verbose)
-					SNT.log("[" + Thread.currentThread() + "] acquired it");
-				if (SearchThread.PAUSED == filler.getThreadStatus()) {
-					// Then we can go ahead and save:
-					pathAndFillManager.addFill(filler.getFill());
-					// ... and then stop filling:
-					filler.requestStop();
-					resultsDialog.changeState(NeuriteTracerResultsDialog.WAITING_TO_START_PATH);
-					filler = null;
-				} else {
-					SNT.error("The filler must be paused before saving the fill.");
-				}
-
+			// avoid concurrent modifications. Everything that
+			// unpauses it is synchronized on this object, so
+			// it stays paused until we're done (see FillerThread).
+			if (SearchThread.PAUSED == filler.getThreadStatus()) {
+				// Then we can go ahead and save:
+				pathAndFillManager.addFill(filler.getFill());
+				// ... and then stop filling:
+				filler.requestStop();
+				resultsDialog.changeState(NeuriteTracerResultsDialog.WAITING_TO_START_PATH);
+				filler = null;
+			} else {
+				SNT.error("The filler must be paused before saving the fill.");
 			}
-			if (verbose)
-				SNT.log("[" + Thread.currentThread() + "] left lock on filler");
 		}
 	}
 
@@ -212,12 +225,10 @@ public class SimpleNeuriteTracer extends ThreePanes
 
 	synchronized public void discardFill(final boolean updateState) {
 		if (filler != null) {
-			synchronized (filler) {
-				filler.requestStop();
-				if (updateState)
-					resultsDialog.changeState(NeuriteTracerResultsDialog.WAITING_TO_START_PATH);
-				filler = null;
-			}
+			filler.requestStop();
+			if (updateState)
+				resultsDialog.changeState(NeuriteTracerResultsDialog.WAITING_TO_START_PATH);
+			filler = null;
 		}
 	}
 
@@ -266,12 +277,7 @@ public class SimpleNeuriteTracer extends ThreePanes
 					SNT.error("Bug! Succeeded, but null result.");
 					return;
 				}
-				if (endJoin != null) {
-					result.setEndJoin(endJoin, endJoinPoint);
-				}
-				setTemporaryPath(result);
-
-				resultsDialog.changeState(NeuriteTracerResultsDialog.QUERY_KEEP);
+				showFoundPath(result);
 
 			} else {
 
@@ -291,6 +297,17 @@ public class SimpleNeuriteTracer extends ThreePanes
 
 	}
 
+	/* Offer a path that a search has found to the user to keep or discard: */
+
+	private void showFoundPath(final Path result) {
+		if (endJoin != null) {
+			result.setEndJoin(endJoin, endJoinPoint);
+		}
+		setTemporaryPath(result);
+
+		resultsDialog.changeState(NeuriteTracerResultsDialog.QUERY_KEEP);
+	}
+
 	@Override
 	public void pointsInSearch(final SearchInterface source, final int inOpen, final int inClosed) {
 		// Just use this signal to repaint the canvas, in case there's
@@ -600,12 +617,12 @@ public class SimpleNeuriteTracer extends ThreePanes
 			repaintAllPanes(); // Or the crosshair isn't updated....
 		}
 
-		if (filler != null) {
-			synchronized (filler) {
-				final float distance = filler.getDistanceAtPoint(ix, iy, iz);
-				resultsDialog.showMouseThreshold(distance);
-			}
-		}
+		final FillerThread currentFiller = filler;
+		if (currentFiller != null)
+			resultsDialog.showMouseThreshold(currentFiller.getDistanceAtPoint(ix, iy, iz));
+
+		if (speculativeTracing)
+			traceSpeculativelyTo(ix, iy, iz);
 	}
 
 	volatile boolean lastStartPointSet = false;
@@ -809,15 +826,35 @@ public class SimpleNeuriteTracer extends ThreePanes
 
 			tubularGeodesicsThread.start();
 
+		} else if (speculativeKey != null && speculativeKey.equals(speculativeKey(x_end, y_end, z_end))) {
+
+			/*
+			 * A speculative search to this point has either found the path
+			 * already, or is still going, in which case it becomes the
+			 * current search:
+			 */
+
+			if (speculativeSearch == null) {
+				final Path result = speculativePath;
+				speculativeKey = null;
+				speculativePath = null;
+				removeSphere(targetBallName);
+				showFoundPath(result);
+			} else {
+				currentSearchThread = speculativeSearch;
+				speculativeSearch = null;
+				speculativeKey = null;
+				currentSearchThread.setPriority(Thread.NORM_PRIORITY);
+				currentSearchThread.setDrawingColors(Color.CYAN, null);
+				currentSearchThread.setDrawingThreshold(-1);
+				addThreadToDraw(currentSearchThread);
+			}
+
 		} else {
 
-			currentSearchThread = new TracerThread(xy, stackMin, stackMax, 0, // timeout
-																				// in
-																				// seconds
-					1000, // reportEveryMilliseconds
-					last_start_point_x, last_start_point_y, last_start_point_z, x_end, y_end, z_end, true, // reciprocal
-					singleSlice, (hessianEnabled ? hessian : null), resultsDialog.getMultiplier(), tubeness,
-					hessianEnabled);
+			cancelSpeculativeSearch();
+
+			currentSearchThread = createTracerThread(x_end, y_end, z_end);
 
 			addThreadToDraw(currentSearchThread);
 
@@ -833,6 +870,108 @@ public class SimpleNeuriteTracer extends ThreePanes
 		repaintAllPanes();
 	}
 
+	private TracerThread createTracerThread(final int x_end, final int y_end, final int z_end) {
+		final TracerThread result = new TracerThread(xy, stackMin, stackMax, 0, // timeout
+																				// in
+																				// seconds
+				1000, // reportEveryMilliseconds
+				last_start_point_x, last_start_point_y, last_start_point_z, x_end, y_end, z_end, true, // reciprocal
+				singleSlice, (hessianEnabled ? hessian : null), resultsDialog.getMultiplier(), tubeness,
+				hessianEnabled);
+		result.setUsePrimitiveEngine(usePrimitiveSearchEngine);
+		result.setParallelBidirectional(parallelBidirectionalSearch);
+		if (!hessianEnabled)
+			result.setCostVolume(getCostVolume());
+		else if (tubeness == null && tubenessVolume != null)
+			result.setTubenessVolume(tubenessVolume);
+		else if (tubeness == null)
+			result.setTubenessCache(getTubenessCache());
+		return result;
+	}
+
+	/*
+	 * If speculativeTracing is set, then while a path is being traced this
+	 * is called with each point the mouse moves to. It cancels any
+	 * speculative search to a different point and starts a low priority one
+	 * from the end of the path to this point, which isn't drawn. If the user
+	 * then clicks on the same point, testPathTo() uses the path it found, or
+	 * takes over the search if it's still going.
+	 *
+	 * speculativeKey holds the start and end points of the speculative search
+	 * and the settings that it depends on; speculativePath is the path it
+	 * found, once speculativeSearch has finished.
+	 */
+
+	private TracerThread speculativeSearch;
+	private List<Object> speculativeKey;
+	private Path speculativePath;
+
+	private List<Object> speculativeKey(final int x_end, final int y_end, final int z_end) {
+		return Arrays.<Object> asList(last_start_point_x, last_start_point_y, last_start_point_z, x_end, y_end, z_end,
+				hessianEnabled, hessian, tubeness, resultsDialog.getMultiplier());
+	}
+
+	synchronized void traceSpeculativelyTo(final int x_end, final int y_end, final int z_end) {
+
+		if (!speculativeTracing || !pathUnfinished || !lastStartPointSet || temporaryPath != null
+				|| currentSearchThread != null || filler != null || tubularGeodesicsTracingEnabled || xy == null) {
+			cancelSpeculativeSearch();
+			return;
+		}
+
+		final List<Object> key = speculativeKey(x_end, y_end, z_end);
+		if (key.equals(speculativeKey))
+			return;
+
+		cancelSpeculativeSearch();
+
+		final TracerThread search = createTracerThread(x_end, y_end, z_end);
+		search.setPriority(Thread.MIN_PRIORITY);
+		search.addProgressListener(new SearchProgressCallback() {
+
+			@Override
+			public void pointsInSearch(final SearchInterface source, final int inOpen, final int inClosed) {
+				if (source == currentSearchThread)
+					repaintAllPanes();
+			}
+
+			@Override
+			public void finished(final SearchInterface source, final boolean success) {
+				speculativeSearchFinished(search, success);
+			}
+
+			@Override
+			public void threadStatus(final SearchInterface source, final int currentStatus) {
+			}
+		});
+
+		speculativeSearch = search;
+		speculativeKey = key;
+		search.start();
+	}
+
+	synchronized private void speculativeSearchFinished(final TracerThread search, final boolean success) {
+		if (search == currentSearchThread) {
+			/* testPathTo() took the search over before it finished: */
+			finished(search, success);
+		} else if (search == speculativeSearch) {
+			speculativeSearch = null;
+			if (success) {
+				speculativePath = search.getResult();
+			} else {
+				speculativeKey = null;
+			}
+		}
+	}
+
+	synchronized void cancelSpeculativeSearch() {
+		if (speculativeSearch != null)
+			speculativeSearch.requestStop();
+		speculativeSearch = null;
+		speculativeKey = null;
+		speculativePath = null;
+	}
+
 	synchronized public void confirmTemporary() {
 
 		if (temporaryPath == null)
@@ -992,9 +1131,11 @@ public class SimpleNeuriteTracer extends ThreePanes
 		if (pathUnfinished) {
 			/*
 			 * Then this is a succeeding point, and we should start a search.
+			 * (The state is changed first since testPathTo() may already have
+			 * the path, from a speculative search.)
 			 */
-			testPathTo(world_x, world_y, world_z, joinPoint);
 			resultsDialog.changeState(NeuriteTracerResultsDialog.SEARCHING);
+			testPathTo(world_x, world_y, world_z, joinPoint);
 		} else {
 			/* This is an initial point. */
 			startPath(world_x, world_y, world_z, joinPoint);
@@ -1023,7 +1164,7 @@ public class SimpleNeuriteTracer extends ThreePanes
 		setFillThreshold(distance);
 	}
 
-	public void setFillThreshold(final double distance) {
+	synchronized public void setFillThreshold(final double distance) {
 
 		if (distance > 0) {
 
@@ -1116,7 +1257,12 @@ public class SimpleNeuriteTracer extends ThreePanes
 	protected String spacing_units = "";
 
 	public void viewFillIn3D(final boolean asMask) {
-		final ImagePlus imagePlus = filler.fillAsImagePlus(asMask);
+		final FillMask mask = filler.getFillMask();
+		if (mask.getVoxelCount() == 0) {
+			SNT.error("There are no points within the fill threshold yet.");
+			return;
+		}
+		final ImagePlus imagePlus = filler.fillAsImagePlus(mask, asMask);
 		imagePlus.show();
 	}
 
@@ -1215,6 +1361,9 @@ public class SimpleNeuriteTracer extends ThreePanes
 	public void startFillerThread(final FillerThread filler) {
 
 		this.filler = filler;
+		filler.setUsePrimitiveEngine(usePrimitiveSearchEngine);
+		filler.setCostVolume(getCostVolume());
+		filler.setThresholdMargin(fillThresholdMargin);
 
 		filler.addProgressListener(this);
 		filler.addProgressListener(resultsDialog.getFillWindow());
@@ -1240,6 +1389,9 @@ public class SimpleNeuriteTracer extends ThreePanes
 				true, // reciprocal
 				0.03f, // Initial threshold to display
 				5000); // reportEveryMilliseconds
+		filler.setUsePrimitiveEngine(usePrimitiveSearchEngine);
+		filler.setCostVolume(getCostVolume());
+		filler.setThresholdMargin(fillThresholdMargin);
 
 		addThreadToDraw(filler);
 
@@ -1268,6 +1420,73 @@ public class SimpleNeuriteTracer extends ThreePanes
 		return Math.min(Math.abs(x_spacing), Math.min(Math.abs(y_spacing), Math.abs(z_spacing)));
 	}
 
+	/*
+	 * The costs that tracing and filling use are both the reciprocal of the
+	 * image value, so they can share one CostVolume. This is calculated in the
+	 * background the first time it's asked for, and again if the image or the
+	 * range of values that it's scaled by have changed since then; until it's
+	 * ready, getCostVolume() returns null and searches work out their costs as
+	 * they go. It also returns null if useCostVolume is false, or if there
+	 * wasn't enough memory for the volume.
+	 */
+
+	volatile CostVolume costVolume;
+	private boolean costVolumeBuilding;
+	/* Incremented when the pixels change, so an older build isn't used: */
+	private int costVolumeGeneration;
+	/* So that a build that ran out of memory isn't tried again and again: */
+	private int costVolumeFailedGeneration = -1;
+
+	synchronized CostVolume getCostVolume() {
+		if (!useCostVolume || xy == null) {
+			costVolume = null;
+			return null;
+		}
+		if (costVolume != null && costVolume.matches(xy, stackMin, stackMax, CostVolume.RECIPROCAL))
+			return costVolume;
+		costVolume = null;
+		if (!costVolumeBuilding && costVolumeFailedGeneration != costVolumeGeneration)
+			startCostVolume();
+		return null;
+	}
+
+	private synchronized void startCostVolume() {
+		costVolumeBuilding = true;
+		final ImagePlus imagePlus = xy;
+		final float min = stackMin;
+		final float max = stackMax;
+		final int generation = costVolumeGeneration;
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				CostVolume result = null;
+				try {
+					result = new CostVolume(imagePlus, min, max, CostVolume.RECIPROCAL);
+				} catch (final OutOfMemoryError oome) {
+					SNT.log("Not enough memory for the cost volume, so working out costs as the search goes");
+				} finally {
+					synchronized (SimpleNeuriteTracer.this) {
+						costVolumeBuilding = false;
+						if (result == null)
+							costVolumeFailedGeneration = generation;
+						if (result != null && generation == costVolumeGeneration && useCostVolume
+								&& result.matches(xy, stackMin, stackMax, CostVolume.RECIPROCAL))
+							costVolume = result;
+					}
+				}
+			}
+		});
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/* Call this if the pixels of the image have been changed in place: */
+
+	public synchronized void invalidateCostVolume() {
+		costVolume = null;
+		++costVolumeGeneration;
+	}
+
 	volatile boolean hessianEnabled = false;
 	ComputeCurvatures hessian = null;
 	/*
@@ -1282,18 +1501,143 @@ public class SimpleNeuriteTracer extends ThreePanes
 			resultsDialog.changeState(NeuriteTracerResultsDialog.CALCULATING_GAUSSIAN);
 			hessianSigma = resultsDialog.getSigma();
 			hessian = new ComputeCurvatures(xy, hessianSigma, this, true);
-			new Thread(hessian).start();
+			startGaussian();
 		} else {
 			final double newSigma = resultsDialog.getSigma();
 			if (newSigma != hessianSigma) {
 				resultsDialog.changeState(NeuriteTracerResultsDialog.CALCULATING_GAUSSIAN);
 				hessianSigma = newSigma;
 				hessian = new ComputeCurvatures(xy, hessianSigma, this, true);
-				new Thread(hessian).start();
+				startGaussian();
+			}
+		}
+	}
+
+	/*
+	 * If precomputeTubeness is set, once the Gaussian for a new sigma has been
+	 * generated the tubeness of the whole image is calculated in the
+	 * background and saved to a cache file (see TubenessVolume), which tracing
+	 * uses as soon as it's ready. If that file already exists when the sigma
+	 * is chosen, it's used straight away and the Gaussian isn't generated at
+	 * all, since nothing else needs it. Looking for the file means hashing
+	 * the image, so that's done on the Gaussian's thread, and only once for
+	 * each image.
+	 */
+
+	volatile protected boolean precomputeTubeness;
+	volatile TubenessVolume tubenessVolume;
+	private AtomicBoolean tubenessCancelled;
+
+	private final Object contentHashLock = new Object();
+	private ImageStack hashedStack;
+	private String contentHash;
+
+	private String contentHash() {
+		synchronized (contentHashLock) {
+			if (contentHash == null || hashedStack != xy.getStack()) {
+				hashedStack = xy.getStack();
+				contentHash = TubenessVolume.contentHash(xy);
 			}
+			return contentHash;
 		}
 	}
 
+	/* Generate the Gaussian for hessian, unless a tubeness file can be used: */
+
+	private void startGaussian() {
+		cancelTubenessVolume();
+		final ComputeCurvatures forHessian = hessian;
+		if (!precomputeTubeness || tubeness != null) {
+			new Thread(forHessian).start();
+			return;
+		}
+		final double sigma = hessianSigma;
+		/* So that cancelGaussian() can stop this before the Gaussian starts: */
+		final AtomicBoolean cancelled;
+		synchronized (this) {
+			cancelled = tubenessCancelled = new AtomicBoolean();
+		}
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (openTubenessVolume(forHessian, sigma, cancelled)) {
+					proportionDone(1.0);
+					return;
+				}
+				final boolean wasCancelled;
+				synchronized (SimpleNeuriteTracer.this) {
+					if (forHessian != hessian)
+						return;
+					wasCancelled = cancelled.get();
+					if (!wasCancelled)
+						tubenessCancelled = null;
+				}
+				if (wasCancelled)
+					proportionDone(-1);
+				else
+					forHessian.run();
+			}
+		}).start();
+	}
+
+	/*
+	 * Returns true if a cache file for that sigma could be mapped, and the
+	 * sigma hasn't been changed again since, nor has it been cancelled:
+	 */
+
+	private boolean openTubenessVolume(final ComputeCurvatures forHessian, final double sigma,
+			final AtomicBoolean cancelled) {
+		final File cacheFile = TubenessVolume.cacheFile(xy, sigma, contentHash());
+		TubenessVolume opened = null;
+		try {
+			opened = TubenessVolume.open(cacheFile, xy, sigma);
+		} catch (final IOException e) {
+			SNT.log("Failed to map the tubeness cache file " + cacheFile + ": " + e);
+		}
+		synchronized (this) {
+			if (opened == null || forHessian != hessian || cancelled.get())
+				return false;
+			tubenessVolume = opened;
+			tubenessCancelled = null;
+			return true;
+		}
+	}
+
+	private synchronized void cancelTubenessVolume() {
+		if (tubenessCancelled != null)
+			tubenessCancelled.set(true);
+		tubenessCancelled = null;
+		tubenessVolume = null;
+	}
+
+	private synchronized void startTubenessVolume() {
+		if (!precomputeTubeness || tubeness != null || tubenessVolume != null || tubenessCancelled != null)
+			return;
+		final ComputeCurvatures forHessian = hessian;
+		final double sigma = hessianSigma;
+		final AtomicBoolean cancelled = tubenessCancelled = new AtomicBoolean();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final File cacheFile = TubenessVolume.cacheFile(xy, sigma, contentHash());
+				try {
+					IJ.showStatus("Calculating the tubeness of the whole image...");
+					final TubenessVolume result = TubenessVolume.calculate(xy, forHessian, sigma, cacheFile,
+							cancelled);
+					synchronized (SimpleNeuriteTracer.this) {
+						if (result != null && !cancelled.get()) {
+							tubenessVolume = result;
+							tubenessCancelled = null;
+						}
+					}
+					IJ.showStatus(result == null ? "" : "Finished calculating the tubeness.");
+				} catch (final IOException e) {
+					SNT.error("Failed to write the tubeness cache file " + cacheFile + ": " + e);
+				}
+			}
+		}).start();
+	}
+
 	// Even better, we might have a "tubeness" file already there.
 	// If this is non-null then we found the "tubeness" file
 	// (called foo.tubes.tif) on startup and loaded it
@@ -1301,6 +1645,24 @@ public class SimpleNeuriteTracer extends ThreePanes
 
 	float[][] tubeness;
 
+	/*
+	 * Otherwise the costs that are worked out from the Hessian as tracing
+	 * goes are remembered in this, so that tracing through the same part of
+	 * the image again is quicker. It's replaced when the sigma or the
+	 * multiplier change.
+	 */
+
+	TubenessCache tubenessCache;
+	int tubenessCacheMegabytes = 128;
+
+	synchronized TubenessCache getTubenessCache() {
+		final double multiplier = resultsDialog.getMultiplier();
+		if (tubenessCache == null || !tubenessCache.matches(hessian, hessianSigma, multiplier))
+			tubenessCache = new TubenessCache(width, height, depth, hessian, hessianSigma, multiplier,
+					tubenessCacheMegabytes);
+		return tubenessCache;
+	}
+
 	public boolean oofFileAvailable() {
 		return oofFile != null;
 	}
@@ -1334,6 +1696,7 @@ public class SimpleNeuriteTracer extends ThreePanes
 		if (hessian != null) {
 			hessian.cancelGaussianGeneration();
 		}
+		cancelTubenessVolume();
 	}
 
 	// This is the implementation of GaussianGenerationCallback
@@ -1349,6 +1712,7 @@ public class SimpleNeuriteTracer extends ThreePanes
 		} else if (proportion >= 1.0) {
 			hessianEnabled = true;
 			resultsDialog.gaussianCalculated(true);
+			startTubenessVolume();
 		}
 		IJ.showProgress(proportion);
 	}
@@ -1820,6 +2184,11 @@ public class SimpleNeuriteTracer extends ThreePanes
 
 	@Override
 	public void closeAndReset() {
+		invalidateCostVolume();
+		synchronized (this) {
+			tubenessCache = null;
+			cancelTubenessVolume();
+		}
 		// Dispose xz/zy images unless the user stored some annotations (ROIs)
 		// on the image overlay or modified them somehow. In that case, restore
 		// them to the user
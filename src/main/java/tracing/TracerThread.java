@@ -77,6 +77,37 @@ public class TracerThread extends SearchThread {
 	float[][] tubeness;
 	boolean useHessian;
 
+	/*
+	 * If there's no tubeness image, costs worked out from the Hessian are
+	 * remembered in this, if it's set:
+	 */
+
+	TubenessCache tubenessCache;
+
+	/*
+	 * A tubeness volume that was calculated in advance can be used in place
+	 * of the tubeness image:
+	 */
+
+	TubenessVolume tubenessVolume;
+
+	public void setTubenessVolume(final TubenessVolume tubenessVolume) {
+		if (isAlive())
+			throw new RuntimeException("BUG: the tubeness volume can't be changed once the search has started");
+		if (tubenessVolume != null && (tubenessVolume.width != width || tubenessVolume.height != height
+				|| tubenessVolume.depth != depth))
+			throw new RuntimeException("BUG: the tubeness volume is a different size from the image");
+		this.tubenessVolume = tubenessVolume;
+	}
+
+	public void setTubenessCache(final TubenessCache tubenessCache) {
+		if (isAlive())
+			throw new RuntimeException("BUG: the tubeness cache can't be changed once the search has started");
+		if (tubenessCache != null && !tubenessCache.matches(hessian, tubenessCache.sigma, multiplier))
+			throw new RuntimeException("BUG: the tubeness cache was made with a different Hessian or multiplier");
+		this.tubenessCache = tubenessCache;
+	}
+
 	boolean singleSlice;
 
 	/* If you specify 0 for timeoutSeconds then there is no timeout. */
@@ -175,96 +206,148 @@ public class TracerThread extends SearchThread {
 
 		if (useHessian) {
 
-			if (tubeness == null) {
-
-				if (singleSlice) {
+			if (tubeness == null && tubenessVolume == null) {
 
-					final double[] hessianEigenValues = new double[2];
+				if (tubenessCache == null) {
+					cost = costFromHessian(new_x, new_y, new_z);
+				} else {
+					// Only find the eigenvalues at each point once:
+					cost = tubenessCache.get(new_x, new_y, new_z);
+					if (Double.isNaN(cost))
+						cost = tubenessCache.put(new_x, new_y, new_z, costFromHessian(new_x, new_y, new_z));
+				}
 
-					final boolean real = hessian.hessianEigenvaluesAtPoint2D(new_x, new_y, true, hessianEigenValues,
-							false, true, x_spacing, y_spacing);
+			} else {
 
-					// Just use the absolute value
-					// of the largest eigenvalue
-					// (if it's < 0)
+				if (tubeness != null) {
 
-					if (real && (hessianEigenValues[1] < 0)) {
+					// Then this saves a lot of time:
+					float measure = tubeness[new_z][new_y * width + new_x];
+					if (measure == 0)
+						measure = 0.2f;
+					cost = 1 / measure;
 
-						double measure = Math.abs(hessianEigenValues[1]);
-						if (measure == 0) // This should never happen in
-											// practice...
-							measure = 0.2;
+				} else {
 
+					/*
+					 * The volume holds the measure before the multiplier,
+					 * or 0 where costFromHessian() would use 1 / 0.2:
+					 */
+					double measure = tubenessVolume.get(new_x, new_y, new_z);
+					if (measure == 0) {
+						cost = 1 / 0.2;
+					} else {
 						measure *= multiplier;
 						if (measure > 256)
 							measure = 256;
-
 						cost = 1 / measure;
+					}
 
-					} else {
+				}
 
-						cost = 1 / 0.2;
+			}
 
-					}
+		} else {
 
-				} else {
+			if (reciprocal) {
+				cost = 1 / RECIPROCAL_FUDGE;
+				if (value_at_new_point != 0)
+					cost = 1.0 / value_at_new_point;
+			} else {
+				cost = 256 - value_at_new_point;
+			}
+
+		}
 
-					final double[] hessianEigenValues = new double[3];
+		return cost;
+	}
 
-					final boolean real = hessian.hessianEigenvaluesAtPoint3D(new_x, new_y, new_z, true,
-							hessianEigenValues, false, true, x_spacing, y_spacing, z_spacing);
+	/*
+	 * The cost of moving to a point worked out from the eigenvalues of the
+	 * Hessian there, for when there's no tubeness image:
+	 */
 
-					/*
-					 * FIXME: there's lots of literature on how to pick this
-					 * rule (see Sato et al, "Three-dimensional multi-scale line
-					 * filter for segmentation and visualization of curvilinear
-					 * structures in medical images". The rule I'm using here
-					 * probably isn't optimal.
-					 */
+	/*
+	 * Scratch space for the eigenvalues in costFromHessian(); this is per
+	 * thread because both halves of a parallel bidirectional search use it.
+	 */
+	private final ThreadLocal<double[]> eigenValues = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[singleSlice ? 2 : 3];
+		}
+	};
 
-					final double e1 = hessianEigenValues[1];
-					final double e2 = hessianEigenValues[2];
+	private double costFromHessian(final int new_x, final int new_y, final int new_z) {
 
-					if (real && (e1 < 0) && (e2 < 0)) {
+		double cost;
 
-						double measure = Math.sqrt(e1 * e2);
+		if (singleSlice) {
 
-						if (measure == 0) // This should never happen in
-											// practice...
-							measure = 0.2;
+			final double[] hessianEigenValues = eigenValues.get();
 
-						measure *= multiplier;
-						if (measure > 256)
-							measure = 256;
+			final boolean real = hessian.hessianEigenvaluesAtPoint2D(new_x, new_y, true, hessianEigenValues,
+					false, true, x_spacing, y_spacing);
 
-						cost = 1 / measure;
+			// Just use the absolute value
+			// of the largest eigenvalue
+			// (if it's < 0)
 
-					} else {
+			if (real && (hessianEigenValues[1] < 0)) {
 
-						cost = 1 / 0.2;
+				double measure = Math.abs(hessianEigenValues[1]);
+				if (measure == 0) // This should never happen in
+									// practice...
+					measure = 0.2;
 
-					}
+				measure *= multiplier;
+				if (measure > 256)
+					measure = 256;
 
-				}
+				cost = 1 / measure;
 
 			} else {
 
-				// Then this saves a lot of time:
-				float measure = tubeness[new_z][new_y * width + new_x];
-				if (measure == 0)
-					measure = 0.2f;
-				cost = 1 / measure;
+				cost = 1 / 0.2;
 
 			}
 
 		} else {
 
-			if (reciprocal) {
-				cost = 1 / RECIPROCAL_FUDGE;
-				if (value_at_new_point != 0)
-					cost = 1.0 / value_at_new_point;
+			final double[] hessianEigenValues = eigenValues.get();
+
+			final boolean real = hessian.hessianEigenvaluesAtPoint3D(new_x, new_y, new_z, true,
+					hessianEigenValues, false, true, x_spacing, y_spacing, z_spacing);
+
+			/*
+			 * FIXME: there's lots of literature on how to pick this
+			 * rule (see Sato et al, "Three-dimensional multi-scale line
+			 * filter for segmentation and visualization of curvilinear
+			 * structures in medical images". The rule I'm using here
+			 * probably isn't optimal.
+			 */
+
+			final double e1 = hessianEigenValues[1];
+			final double e2 = hessianEigenValues[2];
+
+			if (real && (e1 < 0) && (e2 < 0)) {
+
+				double measure = Math.sqrt(e1 * e2);
+
+				if (measure == 0) // This should never happen in
+									// practice...
+					measure = 0.2;
+
+				measure *= multiplier;
+				if (measure > 256)
+					measure = 256;
+
+				cost = 1 / measure;
+
 			} else {
-				cost = 256 - value_at_new_point;
+
+				cost = 1 / 0.2;
+
 			}
 
 		}
@@ -0,0 +1,158 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import features.ComputeCurvatures;
+
+/*
+ * When there's no precomputed tubeness image, TracerThread has to find the
+ * eigenvalues of the Hessian at each point it considers, which is slow and
+ * gets repeated for the same points on every trace. This remembers the costs
+ * that were worked out from them, in pages of the image (see VoxelPages) that
+ * are filled in as searches reach them. Only as many pages as fit in
+ * maximumMegabytes are kept; when another page is needed, one that hasn't been
+ * used recently is dropped, so the pages around where tracing is going on
+ * stay in the cache. This uses the "clock" approximation of least recently
+ * used: each page has a flag that's set whenever it's used, and a hand goes
+ * round the pages, clearing the flags it finds set and dropping the first
+ * page whose flag is already clear.
+ *
+ * Looking up a cost is just an index into the page table, with no locking
+ * (the flags are written without it too, since a lost update only makes
+ * eviction slightly less accurate); only allocating and dropping pages is
+ * synchronized. The costs depend on
+ * the Hessian (and so the sigma it was calculated with) and the multiplier,
+ * so a cache can only be reused if matches() is true. It's safe to use the
+ * same cache from several searches at once.
+ */
+
+public class TubenessCache extends VoxelPages {
+
+	final ComputeCurvatures hessian;
+	final double sigma;
+	final double multiplier;
+
+	final int maximumPages;
+
+	private final AtomicReferenceArray<float[]> costPages;
+
+	/* Set when a page is used, and cleared as the clock hand passes it: */
+	private final byte[] referenced;
+
+	/* The allocated pages, in the order the clock hand goes round them: */
+	private final int[] resident;
+	private int residentCount;
+	private int hand;
+
+	public TubenessCache(final int width, final int height, final int depth, final ComputeCurvatures hessian,
+			final double sigma, final double multiplier, final int maximumMegabytes) {
+		super(width, height, depth);
+		this.hessian = hessian;
+		this.sigma = sigma;
+		this.multiplier = multiplier;
+		maximumPages = (int) Math.max(1, (maximumMegabytes * 1024L * 1024L) / (4L * pageSize));
+		costPages = new AtomicReferenceArray<>(pages);
+		referenced = new byte[pages];
+		resident = new int[Math.min(maximumPages, pages)];
+	}
+
+	public boolean matches(final ComputeCurvatures hessian, final double sigma, final double multiplier) {
+		return hessian == this.hessian && sigma == this.sigma && multiplier == this.multiplier;
+	}
+
+	private synchronized float[] allocatePage(final int page) {
+		float[] costs = costPages.get(page);
+		if (costs == null) {
+			int slot;
+			if (residentCount < resident.length) {
+				slot = residentCount++;
+			} else {
+				while (referenced[resident[hand]] != 0) {
+					referenced[resident[hand]] = 0;
+					hand = (hand + 1) % resident.length;
+				}
+				slot = hand;
+				costPages.set(resident[slot], null);
+				hand = (hand + 1) % resident.length;
+			}
+			costs = new float[pageSize];
+			Arrays.fill(costs, Float.NaN);
+			/*
+			 * A new page only counts as used once it's used again, so that
+			 * pages that a search just passes through go first:
+			 */
+			resident[slot] = page;
+			referenced[page] = 0;
+			costPages.set(page, costs);
+		}
+		return costs;
+	}
+
+	@Override
+	boolean pageAllocated(final int page) {
+		return costPages.get(page) != null;
+	}
+
+	/* Returns NaN if the cost at that point isn't known: */
+
+	public float get(final int x, final int y, final int z) {
+		final int page = page(x, y, z);
+		final float[] costs = costPages.get(page);
+		if (costs == null)
+			return Float.NaN;
+		if (referenced[page] == 0)
+			referenced[page] = 1;
+		return costs[offset(x, y, z)];
+	}
+
+	/*
+	 * Stores the cost at a point, which is rounded to a float; this returns the
+	 * rounded value, which is what get() will return for it later.
+	 */
+
+	public float put(final int x, final int y, final int z, final double cost) {
+		final float rounded = (float) cost;
+		final int page = page(x, y, z);
+		float[] costs = costPages.get(page);
+		if (costs == null)
+			costs = allocatePage(page);
+		else if (referenced[page] == 0)
+			referenced[page] = 1;
+		costs[offset(x, y, z)] = rounded;
+		return rounded;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < residentCount; ++i) {
+			costPages.set(resident[i], null);
+			referenced[resident[i]] = 0;
+		}
+		residentCount = 0;
+		hand = 0;
+	}
+}
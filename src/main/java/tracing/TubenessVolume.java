@@ -0,0 +1,268 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import features.ComputeCurvatures;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+
+/*
+ * The tubeness of every voxel in an image, worked out from the Hessian with
+ * a particular sigma, for tracing to use in the same way as a
+ * <basename>.tubes.tif file. This is calculated in slabs of slices on all the
+ * processors and written to a cache file beside the image (or in the
+ * temporary directory if the image has no directory), whose name includes the
+ * sigma and a hash of the image's pixels. If that file already exists, it is
+ * memory-mapped rather than being calculated again, so it doesn't have to fit
+ * in the heap.
+ *
+ * The tubeness at a point is sqrt(e1 * e2) for the two largest eigenvalues
+ * (the absolute value of the largest for a single slice) if they're
+ * negative, and 0 otherwise - this is the measure TracerThread uses when it
+ * finds the eigenvalues itself, before the multiplier is applied, so the
+ * same file can be used whatever the multiplier is.
+ *
+ * Hashing the pixels means reading the whole image, so callers that look
+ * for the file more than once should work out contentHash() once and pass
+ * it to cacheFile().
+ */
+
+public class TubenessVolume {
+
+	static final int SLICES_PER_SLAB = 4;
+
+	final int width;
+	final int height;
+	final int depth;
+	final double sigma;
+
+	private final FloatBuffer[] slices;
+
+	private TubenessVolume(final int width, final int height, final int depth, final double sigma,
+			final FloatBuffer[] slices) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.sigma = sigma;
+		this.slices = slices;
+	}
+
+	public float get(final int x, final int y, final int z) {
+		return slices[z].get(y * width + x);
+	}
+
+	/* A hash of the dimensions, type and pixel values of the image: */
+
+	static String contentHash(final ImagePlus imagePlus) {
+		final CRC32 crc = new CRC32();
+		final ImageStack stack = imagePlus.getStack();
+		final int width = imagePlus.getWidth();
+		final int height = imagePlus.getHeight();
+		final int depth = imagePlus.getStackSize();
+		final ByteBuffer header = ByteBuffer.allocate(16);
+		header.putInt(width).putInt(height).putInt(depth).putInt(imagePlus.getType());
+		crc.update(header.array());
+		for (int z = 0; z < depth; ++z) {
+			final Object pixels = stack.getPixels(z + 1);
+			if (pixels instanceof byte[]) {
+				crc.update((byte[]) pixels);
+			} else if (pixels instanceof short[]) {
+				final ByteBuffer b = ByteBuffer.allocate(width * height * 2);
+				b.asShortBuffer().put((short[]) pixels);
+				crc.update(b.array());
+			} else if (pixels instanceof float[]) {
+				final ByteBuffer b = ByteBuffer.allocate(width * height * 4);
+				b.asFloatBuffer().put((float[]) pixels);
+				crc.update(b.array());
+			} else if (pixels instanceof int[]) {
+				final ByteBuffer b = ByteBuffer.allocate(width * height * 4);
+				b.asIntBuffer().put((int[]) pixels);
+				crc.update(b.array());
+			}
+		}
+		return String.format("%08x", crc.getValue());
+	}
+
+	public static File cacheFile(final ImagePlus imagePlus, final double sigma) {
+		return cacheFile(imagePlus, sigma, contentHash(imagePlus));
+	}
+
+	public static File cacheFile(final ImagePlus imagePlus, final double sigma, final String contentHash) {
+		final FileInfo fileInfo = imagePlus.getOriginalFileInfo();
+		File directory = null;
+		String baseName = imagePlus.getTitle();
+		if (fileInfo != null && fileInfo.directory != null && fileInfo.fileName != null) {
+			directory = new File(fileInfo.directory);
+			baseName = fileInfo.fileName;
+		}
+		if (directory == null || !directory.canWrite())
+			directory = new File(System.getProperty("java.io.tmpdir"));
+		final int lastDot = baseName.lastIndexOf(".");
+		if (lastDot > 0)
+			baseName = baseName.substring(0, lastDot);
+		return new File(directory,
+				baseName + ".tubes-sigma" + sigma + "-" + contentHash + ".raw");
+	}
+
+	/*
+	 * Memory-maps a cache file that was written by calculate(). Returns null
+	 * if the file isn't there or isn't the right size for the image.
+	 */
+
+	public static TubenessVolume open(final File file, final ImagePlus imagePlus, final double sigma)
+			throws IOException {
+		final int width = imagePlus.getWidth();
+		final int height = imagePlus.getHeight();
+		final int depth = imagePlus.getStackSize();
+		final long sliceBytes = 4L * width * height;
+		if (!file.exists() || file.length() != sliceBytes * depth)
+			return null;
+		final FloatBuffer[] slices = new FloatBuffer[depth];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			for (int z = 0; z < depth; ++z)
+				slices[z] = channel.map(FileChannel.MapMode.READ_ONLY, z * sliceBytes, sliceBytes)
+						.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		}
+		return new TubenessVolume(width, height, depth, sigma, slices);
+	}
+
+	/*
+	 * Calculates the tubeness of the whole image with a Hessian whose Gaussian
+	 * has already been generated, writes it to the file and then maps it. The
+	 * file only appears once it's complete. Returns null if cancelled is set
+	 * before that.
+	 */
+
+	public static TubenessVolume calculate(final ImagePlus imagePlus, final ComputeCurvatures hessian,
+			final double sigma, final File file, final AtomicBoolean cancelled) throws IOException {
+
+		final int width = imagePlus.getWidth();
+		final int height = imagePlus.getHeight();
+		final int depth = imagePlus.getStackSize();
+		final long sliceBytes = 4L * width * height;
+		final float[] spacing = spacing(imagePlus);
+
+		final File partFile = new File(file.getPath() + ".part");
+		final AtomicInteger slicesDone = new AtomicInteger();
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final ExecutorService es = Executors.newFixedThreadPool(processors);
+
+		try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw"); FileChannel channel = raf.getChannel()) {
+			raf.setLength(sliceBytes * depth);
+			final List<Future<Object>> futures = new ArrayList<>();
+			for (int slabStart = 0; slabStart < depth; slabStart += SLICES_PER_SLAB) {
+				final int firstSlice = slabStart;
+				final int lastSlice = Math.min(depth, slabStart + SLICES_PER_SLAB) - 1;
+				futures.add(es.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						final ByteBuffer slab = ByteBuffer.allocate((int) (sliceBytes * (lastSlice - firstSlice + 1)))
+								.order(ByteOrder.LITTLE_ENDIAN);
+						final FloatBuffer values = slab.asFloatBuffer();
+						final double[] eigenValues = new double[(depth == 1) ? 2 : 3];
+						for (int z = firstSlice; z <= lastSlice; ++z) {
+							for (int y = 0; y < height; ++y) {
+								if (cancelled.get())
+									return null;
+								for (int x = 0; x < width; ++x)
+									values.put(tubeness(hessian, x, y, z, depth == 1, eigenValues, spacing));
+							}
+							IJ.showProgress(slicesDone.incrementAndGet(), depth);
+						}
+						long position = firstSlice * sliceBytes;
+						while (slab.hasRemaining())
+							position += channel.write(slab, position);
+						return null;
+					}
+				}));
+			}
+			for (final Future<Object> future : futures)
+				future.get();
+		} catch (final InterruptedException e) {
+			cancelled.set(true);
+		} catch (final ExecutionException e) {
+			partFile.delete();
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException("Calculating the tubeness failed", e.getCause());
+		} finally {
+			es.shutdownNow();
+			IJ.showProgress(1.0);
+		}
+
+		if (cancelled.get()) {
+			partFile.delete();
+			return null;
+		}
+		if (!partFile.renameTo(file)) {
+			partFile.delete();
+			throw new IOException("Failed to rename " + partFile + " to " + file);
+		}
+		return open(file, imagePlus, sigma);
+	}
+
+	private static float[] spacing(final ImagePlus imagePlus) {
+		final Calibration calibration = imagePlus.getCalibration();
+		return new float[] { (float) calibration.pixelWidth, (float) calibration.pixelHeight,
+				(float) calibration.pixelDepth };
+	}
+
+	private static float tubeness(final ComputeCurvatures hessian, final int x, final int y, final int z,
+			final boolean singleSlice, final double[] eigenValues, final float[] spacing) {
+		if (singleSlice) {
+			final boolean real = hessian.hessianEigenvaluesAtPoint2D(x, y, true, eigenValues, false, true, spacing[0],
+					spacing[1]);
+			if (real && eigenValues[1] < 0)
+				return (float) Math.abs(eigenValues[1]);
+		} else {
+			final boolean real = hessian.hessianEigenvaluesAtPoint3D(x, y, z, true, eigenValues, false, true,
+					spacing[0], spacing[1], spacing[2]);
+			if (real && eigenValues[1] < 0 && eigenValues[2] < 0)
+				return (float) Math.sqrt(eigenValues[1] * eigenValues[2]);
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,132 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package tracing;
+
+/*
+ * The search only reaches a small part of a large image, so rather than
+ * allocating storage for whole slices of the image, the stores of search
+ * state divide the image into pages of (at most) 32x32x32 voxels, and only
+ * allocate a page once the search reaches a voxel in it. This class just
+ * works out which page a voxel is in and where it is in that page; the
+ * subclasses hold the pages.
+ *
+ * A page is never larger than the image in any dimension (rounded up to a
+ * power of two), so for a single slice the pages are 32x32x1.
+ */
+
+abstract class VoxelPages {
+
+	static final int MAXIMUM_PAGE_BITS = 5;
+
+	final int width;
+	final int height;
+	final int depth;
+
+	final int xBits, yBits, zBits;
+	final int xMask, yMask, zMask;
+	final int xPages, yPages, zPages;
+
+	/* The number of voxels in each page and the total number of pages: */
+
+	final int pageSize;
+	final int pages;
+
+	VoxelPages(final int width, final int height, final int depth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		xBits = bitsFor(width);
+		yBits = bitsFor(height);
+		zBits = bitsFor(depth);
+		xMask = (1 << xBits) - 1;
+		yMask = (1 << yBits) - 1;
+		zMask = (1 << zBits) - 1;
+		xPages = (width + xMask) >> xBits;
+		yPages = (height + yMask) >> yBits;
+		zPages = (depth + zMask) >> zBits;
+		pageSize = 1 << (xBits + yBits + zBits);
+		pages = xPages * yPages * zPages;
+	}
+
+	private static int bitsFor(final int dimension) {
+		int bits = 0;
+		while (bits < MAXIMUM_PAGE_BITS && (1 << bits) < dimension)
+			++bits;
+		return bits;
+	}
+
+	final int page(final int x, final int y, final int z) {
+		return ((z >> zBits) * yPages + (y >> yBits)) * xPages + (x >> xBits);
+	}
+
+	final int offset(final int x, final int y, final int z) {
+		return ((((z & zMask) << yBits) | (y & yMask)) << xBits) | (x & xMask);
+	}
+
+	/* The position of the voxel at an offset in a page: */
+
+	final int x(final int page, final int offset) {
+		return ((page % xPages) << xBits) | (offset & xMask);
+	}
+
+	final int y(final int page, final int offset) {
+		return (((page / xPages) % yPages) << yBits) | ((offset >> xBits) & yMask);
+	}
+
+	final int z(final int page, final int offset) {
+		return ((page / (xPages * yPages)) << zBits) | (offset >> (xBits + yBits));
+	}
+
+	/*
+	 * Pages at the edges of the image may extend beyond it; use this to skip
+	 * those positions when scanning through a page:
+	 */
+
+	final boolean inImage(final int page, final int offset) {
+		return x(page, offset) < width && y(page, offset) < height && z(page, offset) < depth;
+	}
+
+	abstract boolean pageAllocated(int page);
+
+	/* Whether any voxel in slice z (0-based) is in an allocated page: */
+
+	boolean sliceReached(final int z) {
+		final int first = (z >> zBits) * yPages * xPages;
+		for (int page = first; page < first + yPages * xPages; ++page)
+			if (pageAllocated(page))
+				return true;
+		return false;
+	}
+
+	int pagesAllocated() {
+		int result = 0;
+		for (int page = 0; page < pages; ++page)
+			if (pageAllocated(page))
+				++result;
+		return result;
+	}
+
+}
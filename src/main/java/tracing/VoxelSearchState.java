@@ -0,0 +1,376 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+package tracing;
+
+import java.util.Arrays;
+
+/*
+ * This keeps the state of one direction of a search (i.e. the search from the
+ * start or the search from the goal) in primitive arrays indexed by voxel,
+ * rather than as SearchNode objects. The open list is an indexed binary heap
+ * of voxel indices, so no objects are created while the search runs.
+ *
+ * For each voxel that the search has reached we store the cost so far (g),
+ * the search status and the direction to the predecessor. (The heuristic h is
+ * never stored, since it only depends on the position of the voxel.) The
+ * arrays are allocated a page at a time (see VoxelPages) as the search
+ * reaches each page.
+ *
+ * A voxel is identified by a long made from its page and its offset within
+ * the page: (page << pageBits) | offset.
+ */
+
+class VoxelSearchState extends VoxelPages {
+
+	/* The predecessor is stored as the offset to it, coded as
+	 * (xdiff+1)*9 + (ydiff+1)*3 + (zdiff+1), so the code for "no offset" means
+	 * that there is no predecessor: */
+
+	static final byte NO_PREDECESSOR = 13;
+
+	final byte openStatus;
+	final byte closedStatus;
+
+	final int pageBits;
+
+	float[][] g;
+	byte[][] status;
+	byte[][] predecessor;
+	int[][] heapSlot;
+
+	/* The open list: heapVoxels holds the voxel identifiers and heapF the f
+	 * value of each in the same slot. */
+
+	long[] heapVoxels;
+	float[] heapF;
+	int heapSize;
+
+	int closedCount;
+
+	VoxelSearchState(final int width, final int height, final int depth, final boolean fromStart) {
+		super(width, height, depth);
+		this.openStatus = fromStart ? SearchThread.OPEN_FROM_START : SearchThread.OPEN_FROM_GOAL;
+		this.closedStatus = fromStart ? SearchThread.CLOSED_FROM_START : SearchThread.CLOSED_FROM_GOAL;
+		pageBits = xBits + yBits + zBits;
+		g = new float[pages][];
+		status = new byte[pages][];
+		predecessor = new byte[pages][];
+		heapSlot = new int[pages][];
+		heapVoxels = new long[1024];
+		heapF = new float[1024];
+	}
+
+	static byte predecessorCode(final int xdiff, final int ydiff, final int zdiff) {
+		return (byte) ((xdiff + 1) * 9 + (ydiff + 1) * 3 + (zdiff + 1));
+	}
+
+	/*
+	 * Only predecessors in the 26-neighbourhood can be represented, which is
+	 * always the case for nodes created by a search:
+	 */
+
+	static byte predecessorCode(final SearchNode n) {
+		final SearchNode p = n.getPredecessor();
+		if (p == null)
+			return NO_PREDECESSOR;
+		final int xdiff = p.x - n.x;
+		final int ydiff = p.y - n.y;
+		final int zdiff = p.z - n.z;
+		if (Math.abs(xdiff) > 1 || Math.abs(ydiff) > 1 || Math.abs(zdiff) > 1)
+			return NO_PREDECESSOR;
+		return predecessorCode(xdiff, ydiff, zdiff);
+	}
+
+	long voxel(final int x, final int y, final int z) {
+		return ((long) page(x, y, z) << pageBits) | offset(x, y, z);
+	}
+
+	int x(final long voxel) {
+		return x((int) (voxel >>> pageBits), (int) voxel & (pageSize - 1));
+	}
+
+	int y(final long voxel) {
+		return y((int) (voxel >>> pageBits), (int) voxel & (pageSize - 1));
+	}
+
+	int z(final long voxel) {
+		return z((int) (voxel >>> pageBits), (int) voxel & (pageSize - 1));
+	}
+
+	@Override
+	boolean pageAllocated(final int page) {
+		return status[page] != null;
+	}
+
+	private void allocatePage(final int page) {
+		g[page] = new float[pageSize];
+		status[page] = new byte[pageSize];
+		predecessor[page] = new byte[pageSize];
+		heapSlot[page] = new int[pageSize];
+	}
+
+	/* Returns 0 if the search hasn't reached this voxel: */
+
+	byte getStatus(final int x, final int y, final int z) {
+		final byte[] page = status[page(x, y, z)];
+		return page == null ? 0 : page[offset(x, y, z)];
+	}
+
+	boolean reached(final int x, final int y, final int z) {
+		return getStatus(x, y, z) != 0;
+	}
+
+	boolean isOpen(final int x, final int y, final int z) {
+		return getStatus(x, y, z) == openStatus;
+	}
+
+	boolean isClosed(final int x, final int y, final int z) {
+		return getStatus(x, y, z) == closedStatus;
+	}
+
+	float getG(final int x, final int y, final int z) {
+		return g[page(x, y, z)][offset(x, y, z)];
+	}
+
+	byte getPredecessor(final int x, final int y, final int z) {
+		return predecessor[page(x, y, z)][offset(x, y, z)];
+	}
+
+	int openCount() {
+		return heapSize;
+	}
+
+	int closedCount() {
+		return closedCount;
+	}
+
+	/*
+	 * Add a voxel that the search hasn't reached yet. Requests to add a voxel
+	 * that is already there are ignored, as in SearchThread.addNode().
+	 */
+
+	void add(final int x, final int y, final int z, final float gValue, final float fValue, final byte predecessorCode,
+			final boolean open) {
+		add(x, y, z, gValue, fValue, predecessorCode, open, true);
+	}
+
+	/*
+	 * As add(), but an open voxel is just put at the end of the open list,
+	 * which is left out of order until heapify() is called. This is for
+	 * restoring a search with many points, where ordering the open list once
+	 * at the end takes O(n) rather than O(n log n).
+	 */
+
+	void load(final int x, final int y, final int z, final float gValue, final float fValue, final byte predecessorCode,
+			final boolean open) {
+		add(x, y, z, gValue, fValue, predecessorCode, open, false);
+	}
+
+	/* Puts the open list back in order after load() has been used: */
+
+	void heapify() {
+		for (int slot = (heapSize >>> 1) - 1; slot >= 0; --slot)
+			siftDown(slot);
+	}
+
+	private void add(final int x, final int y, final int z, final float gValue, final float fValue,
+			final byte predecessorCode, final boolean open, final boolean ordered) {
+		final int page = page(x, y, z);
+		if (status[page] == null)
+			allocatePage(page);
+		final int i = offset(x, y, z);
+		if (status[page][i] != 0)
+			return;
+		g[page][i] = gValue;
+		predecessor[page][i] = predecessorCode;
+		if (open) {
+			status[page][i] = openStatus;
+			heapAppend(((long) page << pageBits) | i, fValue);
+			if (ordered)
+				siftUp(heapSize - 1);
+		} else {
+			status[page][i] = closedStatus;
+			++closedCount;
+		}
+	}
+
+	/*
+	 * Record a better route to a voxel that is already open or closed. A closed
+	 * voxel is moved back to the open list.
+	 */
+
+	void improve(final int x, final int y, final int z, final float gValue, final float fValue,
+			final byte predecessorCode) {
+		final int page = page(x, y, z);
+		final int i = offset(x, y, z);
+		g[page][i] = gValue;
+		predecessor[page][i] = predecessorCode;
+		if (status[page][i] == openStatus) {
+			final int slot = heapSlot[page][i];
+			heapF[slot] = fValue;
+			siftUp(slot);
+			siftDown(heapSlot[page][i]);
+		} else {
+			status[page][i] = openStatus;
+			--closedCount;
+			heapInsert(((long) page << pageBits) | i, fValue);
+		}
+	}
+
+	/* Returns the open voxel with the lowest f, without removing it: */
+
+	long peekOpen() {
+		return heapVoxels[0];
+	}
+
+	/*
+	 * Remove the open voxel with the lowest f from the open list. (It isn't
+	 * marked as closed until close() is called.)
+	 */
+
+	long pollOpen() {
+		final long result = heapVoxels[0];
+		--heapSize;
+		if (heapSize > 0) {
+			move(heapSize, 0);
+			siftDown(0);
+		}
+		return result;
+	}
+
+	void close(final int x, final int y, final int z) {
+		status[page(x, y, z)][offset(x, y, z)] = closedStatus;
+		++closedCount;
+	}
+
+	/*
+	 * The heap is ordered in exactly the same way as SearchNode.compareTo(),
+	 * i.e. by f, then by x, y and z, so that the search visits voxels in the
+	 * same order as one with SearchNode objects in a PriorityQueue.
+	 */
+
+	private boolean lessThan(final int slotA, final int slotB) {
+		final float fA = heapF[slotA];
+		final float fB = heapF[slotB];
+		if (fA < fB)
+			return true;
+		if (fA > fB)
+			return false;
+		final long a = heapVoxels[slotA];
+		final long b = heapVoxels[slotB];
+		final int xA = x(a), xB = x(b);
+		if (xA != xB)
+			return xA < xB;
+		final int yA = y(a), yB = y(b);
+		if (yA != yB)
+			return yA < yB;
+		return z(a) < z(b);
+	}
+
+	private void heapInsert(final long voxel, final float f) {
+		heapAppend(voxel, f);
+		siftUp(heapSize - 1);
+	}
+
+	private void heapAppend(final long voxel, final float f) {
+		if (heapSize == heapVoxels.length) {
+			final int newLength = heapVoxels.length * 2;
+			heapVoxels = Arrays.copyOf(heapVoxels, newLength);
+			heapF = Arrays.copyOf(heapF, newLength);
+		}
+		heapVoxels[heapSize] = voxel;
+		heapF[heapSize] = f;
+		setSlot(voxel, heapSize);
+		++heapSize;
+	}
+
+	private void setSlot(final long voxel, final int slot) {
+		heapSlot[(int) (voxel >>> pageBits)][(int) voxel & (pageSize - 1)] = slot;
+	}
+
+	private void move(final int from, final int to) {
+		heapVoxels[to] = heapVoxels[from];
+		heapF[to] = heapF[from];
+		setSlot(heapVoxels[to], to);
+	}
+
+	private void swap(final int a, final int b) {
+		final long voxel = heapVoxels[a];
+		final float f = heapF[a];
+		heapVoxels[a] = heapVoxels[b];
+		heapF[a] = heapF[b];
+		heapVoxels[b] = voxel;
+		heapF[b] = f;
+		setSlot(heapVoxels[a], a);
+		setSlot(heapVoxels[b], b);
+	}
+
+	private void siftUp(int slot) {
+		while (slot > 0) {
+			final int parent = (slot - 1) >>> 1;
+			if (!lessThan(slot, parent))
+				break;
+			swap(slot, parent);
+			slot = parent;
+		}
+	}
+
+	private void siftDown(int slot) {
+		while (true) {
+			final int left = 2 * slot + 1;
+			if (left >= heapSize)
+				break;
+			final int right = left + 1;
+			final int smallest = (right < heapSize && lessThan(right, left)) ? right : left;
+			if (!lessThan(smallest, slot))
+				break;
+			swap(slot, smallest);
+			slot = smallest;
+		}
+	}
+
+	/*
+	 * Follow the predecessors back from (x,y,z). If reversed is false the
+	 * resulting path ends at (x,y,z), otherwise it starts there. (This matches
+	 * SearchNode.asPath() and SearchNode.asPathReversed().)
+	 */
+
+	Path asPath(int x, int y, int z, final double x_spacing, final double y_spacing, final double z_spacing,
+			final String spacing_units, final boolean reversed) {
+		final Path result = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
+		while (true) {
+			result.addPointDouble(x * x_spacing, y * y_spacing, z * z_spacing);
+			final int code = getPredecessor(x, y, z);
+			if (code == NO_PREDECESSOR)
+				break;
+			x += code / 9 - 1;
+			y += (code / 3) % 3 - 1;
+			z += code % 3 - 1;
+		}
+		return reversed ? result : result.reversed();
+	}
+
+}
@@ -0,0 +1,101 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+/* Check that scoring circles with running row sums gives the same badness as
+   going through every point of the plane */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CircleAttemptTest {
+
+	/*
+	 * The original version of Path.CircleAttempt.evaluateCircle(), which goes
+	 * through every point of the square, to check the new one against (and to
+	 * compare it with in CircleAttemptBenchmark).
+	 */
+
+	static double evaluateCircleByScanning(final Path.CircleAttempt attempt, final double x, final double y,
+			final double r) {
+
+		final int side = attempt.side;
+		final float minValueInData = attempt.minValueInData;
+		final float maxValueInData = attempt.maxValueInData;
+		double badness = 0;
+
+		for (int i = 0; i < side; ++i) {
+			for (int j = 0; j < side; ++j) {
+				final float value = attempt.data[attempt.dataOffset + j * side + i];
+				if (r * r > ((i - x) * (i - x) + (j - y) * (j - y)))
+					badness += (maxValueInData - value) * (maxValueInData - value);
+				else
+					badness += (value - minValueInData) * (value - minValueInData);
+			}
+		}
+
+		for (double ic = (x - r); ic <= (x + r); ++ic) {
+			for (double jc = (y - r); jc <= (y + r); ++jc) {
+				if (ic < 0 || ic > side || jc < 0 || jc > side)
+					badness += attempt.maximumPointPenalty;
+			}
+		}
+
+		badness /= (side * side);
+
+		return badness;
+	}
+
+	@Test public void testEvaluateCircleMatchesScanning() {
+		final Random random = new Random(17);
+		for (final int side : new int[] { 5, 16, 41 }) {
+			final float[] plane = new float[side * side];
+			float minValue = Float.MAX_VALUE, maxValue = -Float.MAX_VALUE;
+			for (int i = 0; i < plane.length; ++i) {
+				plane[i] = random.nextInt(4096) / 7f;
+				minValue = Math.min(minValue, plane[i]);
+				maxValue = Math.max(maxValue, plane[i]);
+			}
+			final Path.CircleAttempt attempt = new Path(1, 1, 1, "pixels").new CircleAttempt(
+					new double[] { side / 2.0, side / 2.0, 1 }, plane, minValue, maxValue, side);
+			for (int k = 0; k < 2000; ++k) {
+				double x = random.nextDouble() * side * 1.4 - side * 0.2;
+				double y = random.nextDouble() * side * 1.4 - side * 0.2;
+				double r = random.nextDouble() * side;
+				if (k % 5 == 0) {
+					// Put points exactly on the edge of the circle:
+					x = Math.round(x); y = Math.round(y); r = Math.round(r);
+				}
+				final double expected = evaluateCircleByScanning(attempt, x, y, r);
+				assertEquals(expected, attempt.evaluateCircle(x, y, r), 1e-6 * Math.max(1, expected));
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+/* Check that fill points written with Fill.writeNodesBinary() are read back
+   exactly, and that corrupt input is rejected */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FillBinaryNodesTest {
+
+	/* The text of the <nodes> element that writeNodesBinary() writes: */
+
+	static String nodesText(final Fill fill) throws IOException {
+		final StringWriter sw = new StringWriter();
+		final PrintWriter pw = new PrintWriter(sw);
+		fill.writeNodesBinary(pw);
+		pw.flush();
+		final String xml = sw.toString();
+		return xml.substring(xml.indexOf('>') + 1, xml.lastIndexOf("</nodes>"));
+	}
+
+	static Fill randomFill(final int points) {
+		final Random random = new Random(13);
+		final Fill fill = new Fill(16);
+		int x = 50000, y = 3, z = 70000;
+		for (int i = 0; i < points; ++i) {
+			if (i % 1000 == 0) {
+				// Large jumps in both directions:
+				x += random.nextInt(200001) - 100000;
+				z += random.nextInt(200001) - 100000;
+			} else {
+				x += random.nextInt(3) - 1;
+				y += random.nextInt(3) - 1;
+				z += random.nextInt(3) - 1;
+			}
+			int previous = -1;
+			if (i % 7 != 0)
+				// Some predecessors are far away, or after the point:
+				previous = (i % 5 == 0) ? random.nextInt(points) : Math.max(0, i - 1 - random.nextInt(3));
+			fill.add(x, y, z, random.nextFloat() * 1000, previous, random.nextBoolean());
+		}
+		return fill;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final Fill fill = randomFill(70000);
+		final Fill read = new Fill();
+		read.readNodesBinary(nodesText(fill), fill.size());
+		assertEquals(fill.size(), read.size());
+		for (int i = 0; i < fill.size(); ++i) {
+			assertEquals(fill.getX(i), read.getX(i));
+			assertEquals(fill.getY(i), read.getY(i));
+			assertEquals(fill.getZ(i), read.getZ(i));
+			assertEquals(Float.floatToIntBits(fill.getDistance(i)), Float.floatToIntBits(read.getDistance(i)));
+			assertEquals(fill.getPrevious(i), read.getPrevious(i));
+			assertEquals(fill.isOpen(i), read.isOpen(i));
+		}
+	}
+
+	static void assertRejected(final String text, final int count) {
+		try {
+			new Fill().readNodesBinary(text, count);
+			fail("Corrupt nodes were accepted");
+		} catch (final IOException e) {
+			// That's what should happen
+		}
+	}
+
+	@Test
+	public void testCorruptNodes() throws IOException {
+		final Fill fill = randomFill(100);
+		final String text = nodesText(fill);
+		// A count that doesn't match, including one too large to allocate:
+		assertRejected(text, 99);
+		assertRejected(text, 101);
+		assertRejected(text, Integer.MAX_VALUE);
+		assertRejected(text, -1);
+		// Truncated data, and text that isn't base64:
+		assertRejected(text.substring(0, text.length() / 2), 100);
+		assertRejected("not base64 at all!", 100);
+	}
+}
@@ -0,0 +1,130 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+/* Check that the primitive search engine finds exactly what the SearchNode
+   based one does, on a synthetic image of a bright tube */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrimitiveSearchEngineTest {
+
+	ImagePlus image;
+
+	int width = 60; int height = 40; int depth = 20;
+
+	@Before public void setUp() {
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; ++z) {
+			final byte[] pixels = new byte[width * height];
+			for (int y = 0; y < height; ++y)
+				for (int x = 0; x < width; ++x) {
+					final double cy = height / 2.0 + (height / 4.0) * Math.sin(x * 2 * Math.PI / width);
+					final double d2 = (y - cy) * (y - cy) + (z - depth / 2.0) * (z - depth / 2.0);
+					pixels[y * width + x] = (byte) (200 * Math.exp(-d2 / 8) + ((x * 7 + y * 13 + z * 29) % 30));
+				}
+			stack.addSlice(null, new ByteProcessor(width, height, pixels));
+		}
+		image = new ImagePlus("tube", stack);
+	}
+
+	TracerThread trace(final boolean primitive) {
+		return trace(primitive, false);
+	}
+
+	TracerThread trace(final boolean primitive, final boolean parallel) {
+		final TracerThread tracer = new TracerThread(image, 0, 255, -1, 100, 2, height / 2, depth / 2, width - 3,
+				height / 2, depth / 2, true, false, null, 1, null, false);
+		tracer.setUsePrimitiveEngine(primitive);
+		tracer.setParallelBidirectional(parallel);
+		tracer.run();
+		return tracer;
+	}
+
+	@Test
+	public void testTracing() {
+		final TracerThread usingNodes = trace(false);
+		final TracerThread usingArrays = trace(true);
+		final Path expected = usingNodes.getResult();
+		final Path result = usingArrays.getResult();
+		assertNotNull("No path found", result);
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(expected.getXUnscaled(i), result.getXUnscaled(i));
+			assertEquals(expected.getYUnscaled(i), result.getYUnscaled(i));
+			assertEquals(expected.getZUnscaled(i), result.getZUnscaled(i));
+		}
+		assertEquals(usingNodes.pointsConsideredInSearch(), usingArrays.pointsConsideredInSearch());
+	}
+
+	/* Where the searches meet isn't fixed when they run in parallel, so
+	   just check that the path joins the start to the goal */
+
+	@Test
+	public void testParallelTracing() {
+		for (int i = 0; i < 2; ++i) {
+			final TracerThread tracer = trace(i == 1, true);
+			assertEquals(SearchThread.SUCCESS, tracer.getExitReason());
+			final Path result = tracer.getResult();
+			assertNotNull("No path found", result);
+			assertEquals(2, result.getXUnscaled(0));
+			assertEquals(width - 3, result.getXUnscaled(result.size() - 1));
+			for (int p = 1; p < result.size(); ++p) {
+				assertTrue(Math.abs(result.getXUnscaled(p) - result.getXUnscaled(p - 1)) <= 1);
+				assertTrue(Math.abs(result.getYUnscaled(p) - result.getYUnscaled(p - 1)) <= 1);
+				assertTrue(Math.abs(result.getZUnscaled(p) - result.getZUnscaled(p - 1)) <= 1);
+			}
+		}
+	}
+
+	@Test
+	public void testFilling() {
+		final Set<Path> sourcePaths = new HashSet<>();
+		sourcePaths.add(trace(false).getResult());
+		final Fill[] fills = new Fill[2];
+		for (int i = 0; i < 2; ++i) {
+			final FillerThread filler = new FillerThread(image, 0, 255, false, true, 0.05, 1000);
+			filler.setSourcePaths(sourcePaths);
+			filler.setUsePrimitiveEngine(i == 1);
+			filler.run();
+			fills[i] = filler.getFill();
+		}
+		assertEquals(fills[0].size(), fills[1].size());
+		assertEquals(fills[0].getVolume(), fills[1].getVolume(), 1e-9);
+	}
+}
@@ -0,0 +1,120 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+
+/* Check that removing overlapping circles with a grid of cells gives the
+   same result as the old loop that counted every pair again each time */
+
+package tracing;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RemoveOverlappingCirclesTest {
+
+	/*
+	 * The loop that removeOverlappingCircles() replaced. It uses the same
+	 * circlesOverlap(), so both have the check that circles further apart
+	 * than the sum of their radii don't overlap.
+	 */
+
+	private static void removeByCountingEveryPair(final Path path, final boolean[] valid, final double[] ts_x,
+			final double[] ts_y, final double[] ts_z, final double[] optimized_x, final double[] optimized_y,
+			final double[] optimized_z, final double[] rs) {
+		final int totalPoints = valid.length;
+		final int[] overlapsWith = new int[totalPoints];
+		while (true) {
+			int maximumNumberOfOverlaps = -1;
+			for (int i = 0; i < totalPoints; ++i) {
+				overlapsWith[i] = 0;
+				if (!valid[i])
+					continue;
+				for (int j = 0; j < totalPoints; ++j) {
+					if (!valid[j] || i == j)
+						continue;
+					if (path.circlesOverlap(ts_x[i], ts_y[i], ts_z[i], optimized_x[i], optimized_y[i],
+							optimized_z[i], rs[i], ts_x[j], ts_y[j], ts_z[j], optimized_x[j], optimized_y[j],
+							optimized_z[j], rs[j]))
+						++overlapsWith[i];
+				}
+				if (overlapsWith[i] > maximumNumberOfOverlaps)
+					maximumNumberOfOverlaps = overlapsWith[i];
+			}
+			if (maximumNumberOfOverlaps <= 0)
+				return;
+			for (int i = 0; i < totalPoints; ++i) {
+				if (!valid[i])
+					continue;
+				int n = totalPoints;
+				for (int j = totalPoints - 1; j > i; --j)
+					if (valid[j])
+						n = j;
+				if (overlapsWith[i] == maximumNumberOfOverlaps) {
+					if (n < totalPoints && overlapsWith[n] == maximumNumberOfOverlaps && rs[n] > rs[i])
+						valid[n] = false;
+					else
+						valid[i] = false;
+					break;
+				}
+			}
+		}
+	}
+
+	@Test public void testMatchesCountingEveryPair() {
+		final Path path = new Path(1, 1, 1, "pixels");
+		for (int trial = 0; trial < 200; ++trial) {
+			final Random random = new Random(trial);
+			final int n = 20 + random.nextInt(150);
+			final double[] ts_x = new double[n], ts_y = new double[n], ts_z = new double[n];
+			final double[] x = new double[n], y = new double[n], z = new double[n], rs = new double[n];
+			final boolean[] valid = new boolean[n];
+			for (int i = 0; i < n; ++i) {
+				// Circles along a wavy line, with normals that are often
+				// parallel and radii that are often the same:
+				x[i] = i * 0.5 + random.nextGaussian();
+				y[i] = 5 * Math.sin(i * 0.3) + random.nextGaussian();
+				z[i] = random.nextInt(4);
+				ts_x[i] = random.nextInt(5) - 2;
+				ts_y[i] = random.nextInt(5) - 2;
+				ts_z[i] = random.nextInt(3) - 1;
+				if (ts_x[i] == 0 && ts_y[i] == 0 && ts_z[i] == 0)
+					ts_x[i] = 1;
+				if (trial % 3 == 0)
+					rs[i] = random.nextInt(4);
+				else
+					rs[i] = random.nextDouble() * 4 - ((trial % 7 == 0) ? 1 : 0);
+				valid[i] = random.nextInt(10) > 0;
+			}
+			final boolean[] expected = valid.clone();
+			removeByCountingEveryPair(path, expected, ts_x, ts_y, ts_z, x, y, z, rs);
+			path.removeOverlappingCircles(valid, ts_x, ts_y, ts_z, x, y, z, rs);
+			assertArrayEquals("trial " + trial, expected, valid);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2020 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+
+/* Check the counts in the SearchMetrics that a search sends to a
+   SearchMetricsCallback, against the search's own open and closed lists */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchMetricsTest {
+
+	ImagePlus image;
+
+	int width = 60; int height = 40; int depth = 20;
+
+	@Before public void setUp() {
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; ++z) {
+			final byte[] pixels = new byte[width * height];
+			for (int y = 0; y < height; ++y)
+				for (int x = 0; x < width; ++x) {
+					final double d2 = (y - height / 2.0) * (y - height / 2.0) + (z - depth / 2.0) * (z - depth / 2.0);
+					pixels[y * width + x] = (byte) (200 * Math.exp(-d2 / 8) + ((x * 7 + y * 13 + z * 29) % 30));
+				}
+			stack.addSlice(null, new ByteProcessor(width, height, pixels));
+		}
+		image = new ImagePlus("tube", stack);
+	}
+
+	static class Recorder implements SearchMetricsCallback {
+		SearchMetrics last;
+		int finishedCalls;
+
+		@Override
+		public void searchMetrics(final SearchThread source, final SearchMetrics metrics) {
+			last = metrics;
+		}
+
+		@Override
+		public void pointsInSearch(final SearchInterface source, final int inOpen, final int inClosed) {}
+
+		@Override
+		public void finished(final SearchInterface source, final boolean success) {
+			++finishedCalls;
+		}
+
+		@Override
+		public void threadStatus(final SearchInterface source, final int currentStatus) {}
+	}
+
+	void checkCounts(final boolean primitive, final boolean parallel) {
+		final TracerThread tracer = new TracerThread(image, 0, 255, -1, 100, 2, height / 2, depth / 2, width - 3,
+				height / 2, depth / 2, true, false, null, 1, null, false);
+		tracer.setUsePrimitiveEngine(primitive);
+		tracer.setParallelBidirectional(parallel);
+		final Recorder recorder = new Recorder();
+		tracer.addProgressListener(recorder);
+		tracer.run();
+
+		final SearchMetrics metrics = recorder.last;
+		assertNotNull("No metrics were reported", metrics);
+		assertEquals(1, recorder.finishedCalls);
+		assertEquals(SearchThread.SUCCESS, metrics.getExitReason());
+		assertTrue(metrics.isTimed());
+
+		for (final boolean fromStart : new boolean[] { true, false }) {
+			// The heuristic is consistent, so no point is reopened and each
+			// closed point was expanded exactly once:
+			assertEquals(0, metrics.getNodesReopened(fromStart));
+			assertEquals(tracer.closedSize(fromStart), metrics.getNodesExpanded(fromStart));
+			assertTrue(metrics.getPeakOpen(fromStart) > 0);
+			assertTrue(metrics.getPeakClosed(fromStart) < tracer.closedSize(fromStart));
+		}
+		assertEquals(metrics.getNodesExpanded(true) + metrics.getNodesExpanded(false), metrics.getNodesExpanded());
+
+		// The peak of the total can't be more than the sum of the peaks:
+		assertTrue(metrics.getPeakOpen() >= Math.max(metrics.getPeakOpen(true), metrics.getPeakOpen(false)));
+		assertTrue(metrics.getPeakOpen() <= metrics.getPeakOpen(true) + metrics.getPeakOpen(false));
+		assertTrue(metrics.getPeakClosed() >= Math.max(metrics.getPeakClosed(true), metrics.getPeakClosed(false)));
+		assertTrue(metrics.getPeakClosed() <= metrics.getPeakClosed(true) + metrics.getPeakClosed(false));
+	}
+
+	@Test
+	public void testCounts() {
+		checkCounts(false, false);
+		checkCounts(true, false);
+	}
+
+	@Test
+	public void testParallelCounts() {
+		checkCounts(false, true);
+		checkCounts(true, true);
+	}
+}